@@ -1,10 +1,15 @@
 package ai.nlp;
 
-import org.apache.poi.ss.usermodel.*;
-import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.xssf.streaming.SXSSFSheet;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
 
-import java.io.*;
-import java.util.*;
+import java.io.FileOutputStream;
+import java.nio.file.Path;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
 
 /**
  * Khử trùng các dòng trong Excel dựa trên (question, answer),
@@ -28,72 +33,54 @@ public class DedupQuestionAnswerPreserveStructure {
     String qHeaderNameOverride = args.length > 2 ? args[2] : null;
     String aHeaderNameOverride = args.length > 3 ? args[3] : null;
 
-    try (FileInputStream fis = new FileInputStream(inputPath);
-         Workbook inWb = new XSSFWorkbook(fis)) {
+    // giữ cả dòng trắng phân cách (như sheet.getRow trả về dòng rỗng) để không xô lệch bố cục
+    try (XlsxRowReader in = XlsxRowReader.open(Path.of(inputPath), true);
+         SXSSFWorkbook outWb = new SXSSFWorkbook(500)) {
 
-      Sheet inSheet = inWb.getSheetAt(0);
-      if (inSheet == null) {
-        throw new IllegalStateException("Không tìm thấy sheet đầu tiên.");
-      }
-
-      Row header = inSheet.getRow(0);
+      XlsxRowReader.Row header = in.header();
       if (header == null) {
         throw new IllegalStateException("Không tìm thấy hàng header (row 0).");
       }
 
       // Số cột cần giữ nguyên cấu trúc
-      int colCount = header.getLastCellNum();
+      int colCount = header.size();
 
       // Tìm cột question/answer
-      int qCol = findColumnIndex(header, qHeaderNameOverride, List.of("question", "ques", "query", "prompt", "cauhoi"
-          , "hoi"));
-      int aCol = findColumnIndex(header, aHeaderNameOverride, List.of("answer", "ans", "response", "completion",
-          "traloi", "tra_loi", "reply"));
+      int qCol = XlsxRowReader.findColumnIndex(header, qHeaderNameOverride, List.of("question", "ques", "query",
+          "prompt", "cauhoi", "hoi"));
+      int aCol = XlsxRowReader.findColumnIndex(header, aHeaderNameOverride, List.of("answer", "ans", "response",
+          "completion", "traloi", "tra_loi", "reply"));
 
       if (qCol < 0 || aCol < 0) {
         throw new IllegalStateException("Không tìm thấy cột 'question' hoặc 'answer' trong header.");
       }
 
-      DataFormatter formatter = new DataFormatter();
-      FormulaEvaluator evaluator = inWb.getCreationHelper().createFormulaEvaluator();
-
       // Dùng LinkedHashSet để vừa tra cứu nhanh, vừa giữ thứ tự lần đầu gặp
       Set<String> seen = new LinkedHashSet<>();
 
-      // Workbook output
-      Workbook outWb = new XSSFWorkbook();
-      Sheet outSheet = outWb.createSheet(inSheet.getSheetName() + "_dedup");
+      // Workbook output ghi kiểu streaming: chỉ giữ 500 dòng gần nhất trong heap
+      SXSSFSheet outSheet = outWb.createSheet(in.sheetName() + "_dedup");
+      outSheet.trackAllColumnsForAutoSizing();
 
       // Ghi header
-      Row outHeader = outSheet.createRow(0);
-      for (int c = 0; c < colCount; c++) {
-        copyCellValue(header.getCell(c), outHeader.createCell(c), formatter, evaluator);
-      }
+      copyRow(header, outSheet.createRow(0), colCount);
 
-      int lastRow = inSheet.getLastRowNum();
+      int lastRow = 0;
       int outRowIdx = 1;
       int removedDup = 0;
-      int removedEmpty = 0;
       int kept = 0;
 
-      for (int r = 1; r <= lastRow; r++) {
-        Row row = inSheet.getRow(r);
-        if (row == null) continue;
-
-        String qRaw = getCellAsDisplayString(row.getCell(qCol), formatter, evaluator);
-        String aRaw = getCellAsDisplayString(row.getCell(aCol), formatter, evaluator);
+      for (XlsxRowReader.Row row; (row = in.next()) != null; ) {
+        lastRow = row.num();
 
-        String qKey = normalizeForKey(qRaw);
-        String aKey = normalizeForKey(aRaw);
+        String qKey = normalizeForKey(row.get(qCol));
+        String aKey = normalizeForKey(row.get(aCol));
 
         boolean eligible = !qKey.isEmpty() && !aKey.isEmpty();
 
         if (!eligible) {
           // Không đủ điều kiện gom trùng ⇒ giữ nguyên
-          Row outRow = outSheet.createRow(outRowIdx++);
-          for (int c = 0; c < colCount; c++) {
-            copyCellValue(row.getCell(c), outRow.createCell(c), formatter, evaluator);
-          }
+          copyRow(row, outSheet.createRow(outRowIdx++), colCount);
           kept++;
           continue;
         }
@@ -106,10 +93,7 @@ public class DedupQuestionAnswerPreserveStructure {
         } else {
           // Lần đầu tiên ⇒ giữ lại và đánh dấu đã thấy
           seen.add(key);
-          Row outRow = outSheet.createRow(outRowIdx++);
-          for (int c = 0; c < colCount; c++) {
-            copyCellValue(row.getCell(c), outRow.createCell(c), formatter, evaluator);
-          }
+          copyRow(row, outSheet.createRow(outRowIdx++), colCount);
           kept++;
         }
       }
@@ -125,7 +109,7 @@ public class DedupQuestionAnswerPreserveStructure {
       try (FileOutputStream fos = new FileOutputStream(outputPath)) {
         outWb.write(fos);
       }
-      outWb.close();
+      outWb.dispose(); // xoá file tạm của SXSSF
 
       int originalRows = lastRow + 1;
       System.out.println("✅ Hoàn tất khử trùng theo (question, answer).");
@@ -139,44 +123,6 @@ public class DedupQuestionAnswerPreserveStructure {
     }
   }
 
-  /**
-   * Tìm index cột. Ưu tiên tên override; nếu không có thì dò theo danh sách alias.
-   */
-  private static int findColumnIndex(Row header, String overrideName, List<String> aliases) {
-    int colCount = header.getLastCellNum();
-    // 1) Nếu có overrideName: match không phân biệt hoa thường, match “chứa”
-    if (overrideName != null && !overrideName.isBlank()) {
-      String needle = overrideName.trim().toLowerCase();
-      for (int c = 0; c < colCount; c++) {
-        String name = safeLower(header.getCell(c));
-        if (name.contains(needle)) return c;
-      }
-    }
-    // 2) Dò theo alias
-    for (int c = 0; c < colCount; c++) {
-      String name = safeLower(header.getCell(c));
-      if (name == null) continue;
-      for (String a : aliases) {
-        if (name.contains(a)) return c;
-      }
-    }
-    return -1;
-  }
-
-  private static String safeLower(Cell cell) {
-    if (cell == null) return null;
-    String s = cell.getCellType() == CellType.STRING ? cell.getStringCellValue() : cell.toString();
-    return s == null ? null : s.trim().toLowerCase();
-  }
-
-  /**
-   * Lấy chuỗi hiển thị giống Excel (DataFormatter) để hạn chế lỗi format số/ngày.
-   */
-  private static String getCellAsDisplayString(Cell cell, DataFormatter formatter, FormulaEvaluator evaluator) {
-    if (cell == null) return "";
-    return formatter.formatCellValue(cell, evaluator);
-  }
-
   /**
    * Chuẩn hoá tạo key: trim, gộp khoảng trắng, lowercase.
    */
@@ -187,51 +133,27 @@ public class DedupQuestionAnswerPreserveStructure {
   }
 
   /**
-   * Copy giá trị từ cell nguồn sang cell đích (value only, không copy style để đơn giản/stable).
+   * Copy giá trị từ ô nguồn sang ô đích (value only, không copy style để đơn giản/stable), theo kiểu ô gốc:
+   * chuỗi giữ nguyên là chuỗi (kể cả chuỗi toàn chữ số như số điện thoại, mã), số ghi lại thành số, boolean giữ
+   * boolean; công thức, ngày tháng và lỗi ghi đúng chuỗi hiển thị của Excel.
    */
-  private static void copyCellValue(Cell src, Cell tgt, DataFormatter formatter, FormulaEvaluator evaluator) {
-    if (src == null) {
-      tgt.setBlank();
-      return;
-    }
-    CellType type = src.getCellType();
-    if (type == CellType.FORMULA) {
-      // Với công thức: ghi ra giá trị hiển thị tương tự Excel
-      String display = formatter.formatCellValue(src, evaluator);
-      tgt.setCellValue(display);
-      return;
-    }
-    switch (type) {
-      case STRING:
-        tgt.setCellValue(src.getStringCellValue());
-        break;
-      case NUMERIC:
-        if (DateUtil.isCellDateFormatted(src)) {
-          // Ghi dạng số serial hoặc dạng chuỗi định dạng? Để dễ đọc: ghi đúng hiển thị của Excel
-          String display = formatter.formatCellValue(src);
-          tgt.setCellValue(display);
-        } else {
-          // Ghi số thực tế (tránh khoa học). Nếu muốn giữ y nguyên hiển thị => dùng formatter
-          String display = formatter.formatCellValue(src);
-          // Thử parse về số nếu có thể, nếu không thì ghi chuỗi hiển thị
+  private static void copyRow(XlsxRowReader.Row src, Row tgt, int colCount) {
+    for (int c = 0; c < colCount; c++) {
+      Cell cell = tgt.createCell(c);
+      String display = src.get(c);
+      switch (src.kind(c)) {
+        case BLANK -> cell.setBlank();
+        case BOOLEAN -> cell.setCellValue("TRUE".equalsIgnoreCase(display));
+        case NUMERIC -> {
+          // Ghi số thực tế (tránh khoa học); không parse được thì ghi chuỗi hiển thị
           try {
-            double d = Double.parseDouble(display.replace(",", ""));
-            tgt.setCellValue(d);
+            cell.setCellValue(Double.parseDouble(display.replace(",", "")));
           } catch (NumberFormatException e) {
-            tgt.setCellValue(display);
+            cell.setCellValue(display);
           }
         }
-        break;
-      case BOOLEAN:
-        tgt.setCellValue(src.getBooleanCellValue());
-        break;
-      case BLANK:
-        tgt.setBlank();
-        break;
-      default:
-        // Các loại khác: ghi theo hiển thị
-        String display = formatter.formatCellValue(src);
-        tgt.setCellValue(display);
+        default -> cell.setCellValue(display);
+      }
     }
   }
 }
\ No newline at end of file
@@ -10,14 +10,12 @@ import edu.stanford.nlp.semgraph.SemanticGraph;
 import edu.stanford.nlp.semgraph.SemanticGraphCoreAnnotations;
 import edu.stanford.nlp.semgraph.SemanticGraphEdge;
 import edu.stanford.nlp.util.CoreMap;
-import org.apache.poi.ss.usermodel.*;
-import org.apache.poi.xssf.usermodel.XSSFWorkbook;
 
 import java.io.BufferedWriter;
-import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.OutputStreamWriter;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
 import java.util.*;
 import java.util.regex.Pattern;
 
@@ -79,22 +77,19 @@ public class NLPExtractor {
     StanfordCoreNLP pipeline = new StanfordCoreNLP(props);
 
     // 2) Read Excel file
-    try (FileInputStream fis = new FileInputStream(inputXlsx); Workbook workbook = new XSSFWorkbook(fis); BufferedWriter out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(outputJsonl), StandardCharsets.UTF_8))) {
-
-      Sheet sheet = workbook.getSheetAt(0);
+    try (XlsxRowReader in = XlsxRowReader.open(Path.of(inputXlsx)); BufferedWriter out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(outputJsonl), StandardCharsets.UTF_8))) {
 
       // Map header => column index
-      Map<String, Integer> col = mapHeader(sheet.getRow(0));
+      Map<String, Integer> col = XlsxRowReader.mapHeader(in.header());
       mustHave(col, "question");
       mustHave(col, "answer");
 
       Gson gson = new GsonBuilder().disableHtmlEscaping().create();
       int rowCount = 0;
-      for (Row row : sheet) {
-        if (row.getRowNum() == 0) continue;
-        String question = getCellString(row.getCell(col.get("question")));
-        String answer = getCellString(row.getCell(col.get("answer")));
-        String type = col.containsKey("type") ? getCellString(row.getCell(col.get("type"))) : "";
+      for (XlsxRowReader.Row row; (row = in.next()) != null; ) {
+        String question = row.get(col.get("question"));
+        String answer = row.get(col.get("answer"));
+        String type = col.containsKey("type") ? row.get(col.get("type")) : "";
 
         if ((question == null || question.isBlank()) && (answer == null || answer.isBlank())) continue;
         String rawText = "Q: " + (question == null ? "" : question) + " A: " + (answer == null ? "" : answer);
@@ -105,7 +100,7 @@ public class NLPExtractor {
         pipeline.annotate(doc);
 
         RowNLPRecord record = new RowNLPRecord();
-        record.rowIndex = row.getRowNum();
+        record.rowIndex = row.num();
         record.question = question;
         record.answer = answer;
         record.type = type;
@@ -147,36 +142,6 @@ public class NLPExtractor {
     System.out.println("✅ Done. JSONL saved to: " + outputJsonl);
   }
 
-  // --- Helper methods (mapHeader, processText, extractSentenceInfo, toJson) would go here ---
-  private static Map<String, Integer> mapHeader(Row headerRow) {
-    Map<String, Integer> map = new HashMap<>();
-    if (headerRow == null) return map;
-    for (Cell cell : headerRow) {
-      String name = getCellString(cell);
-      if (name != null) map.put(name.trim().toLowerCase(), cell.getColumnIndex());
-    }
-    return map;
-  }
-
-  private static String getCellString(Cell cell) {
-    if (cell == null) return "";
-    return switch (cell.getCellType()) {
-      case STRING -> cell.getStringCellValue();
-      case NUMERIC -> DateUtil.isCellDateFormatted(cell) ? cell.getDateCellValue().toString() :
-          (cell.getNumericCellValue() == Math.floor(cell.getNumericCellValue()) ?
-              String.valueOf((long) cell.getNumericCellValue()) : String.valueOf(cell.getNumericCellValue()));
-      case BOOLEAN -> String.valueOf(cell.getBooleanCellValue());
-      case FORMULA -> {
-        try {
-          yield cell.getStringCellValue();
-        } catch (Exception e) {
-          yield String.valueOf(cell.getNumericCellValue());
-        }
-      }
-      default -> null;
-    };
-  }
-
   private static void mustHave(Map<String, Integer> col, String key) {
     if (!col.containsKey(key)) {
       throw new IllegalArgumentException("Missing required column: " + key);
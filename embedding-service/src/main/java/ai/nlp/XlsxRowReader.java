@@ -0,0 +1,353 @@
+package ai.nlp;
+
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackageAccess;
+import org.apache.poi.ss.usermodel.DataFormatter;
+import org.apache.poi.ss.usermodel.DateUtil;
+import org.apache.poi.ss.util.CellReference;
+import org.apache.poi.util.XMLHelper;
+import org.apache.poi.xssf.eventusermodel.ReadOnlySharedStringsTable;
+import org.apache.poi.xssf.eventusermodel.XSSFReader;
+import org.apache.poi.xssf.eventusermodel.XSSFSheetXMLHandler;
+import org.apache.poi.xssf.model.StylesTable;
+import org.apache.poi.xssf.usermodel.XSSFCellStyle;
+import org.apache.poi.xssf.usermodel.XSSFComment;
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Đọc tuần tự sheet đầu tiên của file .xlsx bằng XSSF event model (SAX), không dựng cả workbook trong heap.
+ * <p>
+ * Shared strings đọc qua {@link ReadOnlySharedStringsTable}, sheet XML được parse trên một thread riêng và
+ * đẩy từng dòng qua hàng đợi có giới hạn, nên caller đọc kiểu pull ({@link #next()}) như với {@code Sheet.getRow}
+ * mà bộ nhớ chỉ giữ vài nghìn dòng. Giá trị ô là chuỗi hiển thị theo {@link DataFormatter}
+ * (công thức lấy kết quả đã cache), giống {@code formatter.formatCellValue(cell)}, kèm {@link Kind} lấy từ
+ * thuộc tính {@code t}/{@code s} của ô trong XML (để ghi lại đúng kiểu như {@code Cell.getCellType()}).
+ * Dòng trống mặc định không được phát ra; {@code open(file, true)} phát cả dòng có trong sheet mà không có giá trị.
+ * <p>
+ * Dùng:
+ * <pre>
+ * try (XlsxRowReader in = XlsxRowReader.open(path)) {
+ *   XlsxRowReader.Row header = in.header();
+ *   for (XlsxRowReader.Row row; (row = in.next()) != null; ) { ... }
+ * }
+ * </pre>
+ */
+public final class XlsxRowReader implements Closeable {
+
+  /**
+   * Kiểu của ô trong sheet XML. {@code FORMULA} là ô có {@code <f>} (giá trị là kết quả đã cache);
+   * {@code DATE} là ô số có định dạng ngày.
+   */
+  public enum Kind {
+    BLANK, STRING, NUMERIC, DATE, BOOLEAN, FORMULA, ERROR
+  }
+
+  /**
+   * Một dòng: {@code num} là chỉ số dòng 0-based như {@code Row.getRowNum()}; ô thiếu trả về "".
+   */
+  public static final class Row {
+    private final int num;
+    private final String[] cells;
+    private final Kind[] kinds;
+
+    Row(int num, String[] cells, Kind[] kinds) {
+      this.num = num;
+      this.cells = cells;
+      this.kinds = kinds;
+    }
+
+    public int num() {
+      return num;
+    }
+
+    /**
+     * Số cột tính tới ô cuối cùng có dữ liệu (như {@code getLastCellNum()}).
+     */
+    public int size() {
+      return cells.length;
+    }
+
+    public String get(int col) {
+      if (col < 0 || col >= cells.length) return "";
+      String v = cells[col];
+      return v == null ? "" : v;
+    }
+
+    /**
+     * Kiểu của ô; ô thiếu hoặc rỗng là {@link Kind#BLANK}.
+     */
+    public Kind kind(int col) {
+      if (col < 0 || col >= kinds.length || kinds[col] == null) return Kind.BLANK;
+      return kinds[col];
+    }
+  }
+
+  private static final Row END = new Row(-1, new String[0], new Kind[0]);
+  private static final int QUEUE_ROWS = 1024;
+
+  private final OPCPackage pkg;
+  private final String sheetName;
+  private final BlockingQueue<Row> queue = new ArrayBlockingQueue<>(QUEUE_ROWS);
+  private final Thread parser;
+  private final boolean emptyRows;
+  private volatile Throwable failure;
+  private volatile boolean closed;
+  private Row peeked;
+  private boolean done;
+
+  private XlsxRowReader(OPCPackage pkg, String sheetName, InputStream sheet, ReadOnlySharedStringsTable strings,
+                        StylesTable styles, boolean emptyRows) {
+    this.pkg = pkg;
+    this.sheetName = sheetName;
+    this.emptyRows = emptyRows;
+    this.parser = new Thread(() -> parse(sheet, strings, styles), "xlsx-reader");
+    this.parser.setDaemon(true);
+    this.parser.start();
+  }
+
+  public static XlsxRowReader open(Path file) throws IOException {
+    return open(file, false);
+  }
+
+  /**
+   * @param emptyRows phát cả các dòng có trong sheet nhưng không có ô nào có giá trị (dòng trắng phân cách),
+   *                  để caller giữ nguyên bố cục dòng
+   */
+  public static XlsxRowReader open(Path file, boolean emptyRows) throws IOException {
+    OPCPackage pkg = null;
+    try {
+      pkg = OPCPackage.open(file.toFile(), PackageAccess.READ);
+      XSSFReader reader = new XSSFReader(pkg);
+      ReadOnlySharedStringsTable strings = new ReadOnlySharedStringsTable(pkg);
+      StylesTable styles = reader.getStylesTable();
+      XSSFReader.SheetIterator it = (XSSFReader.SheetIterator) reader.getSheetsData();
+      if (!it.hasNext()) throw new IllegalStateException("Không tìm thấy sheet đầu tiên.");
+      InputStream sheet = it.next();
+      return new XlsxRowReader(pkg, it.getSheetName(), sheet, strings, styles, emptyRows);
+    } catch (IOException | RuntimeException e) {
+      if (pkg != null) pkg.revert();
+      throw e;
+    } catch (Exception e) {
+      if (pkg != null) pkg.revert();
+      throw new IOException("Cannot open xlsx " + file, e);
+    }
+  }
+
+  public String sheetName() {
+    return sheetName;
+  }
+
+  /**
+   * Dòng header (dòng 0), hoặc null nếu sheet không có dòng 0. Gọi trước {@link #next()}.
+   */
+  public Row header() throws IOException {
+    Row first = next();
+    if (first != null && first.num() == 0) return first;
+    peeked = first;
+    return null;
+  }
+
+  /**
+   * Dòng kế tiếp, hoặc null khi hết sheet. Lỗi parse được ném lại ở đây.
+   */
+  public Row next() throws IOException {
+    if (peeked != null) {
+      Row r = peeked;
+      peeked = null;
+      return r;
+    }
+    if (done) return null;
+    Row r;
+    try {
+      r = queue.take();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while reading xlsx");
+    }
+    if (r != END) return r;
+    done = true;
+    Throwable t = failure;
+    if (t == null) return null;
+    if (t instanceof IOException io) throw io;
+    if (t instanceof RuntimeException re) throw re;
+    throw new IOException("Cannot parse sheet " + sheetName, t);
+  }
+
+  @Override
+  public void close() {
+    closed = true;
+    parser.interrupt();
+    pkg.revert(); // mở READ: đóng mà không ghi lại
+  }
+
+  // ---- parser thread ----
+
+  private void parse(InputStream sheet, ReadOnlySharedStringsTable strings, StylesTable styles) {
+    try (sheet) {
+      XMLReader xml = XMLHelper.newXMLReader();
+      Collector collector = new Collector();
+      xml.setContentHandler(new XSSFSheetXMLHandler(styles, strings, collector, new DataFormatter(), false) {
+        // XSSFSheetXMLHandler chỉ trả chuỗi đã format: ghi lại kiểu của ô trước khi nó xử lý phần tử
+        @Override
+        public void startElement(String uri, String localName, String qName, Attributes attrs) throws SAXException {
+          if ("c".equals(localName)) collector.kind = kindOf(attrs, styles);
+          else if ("f".equals(localName)) collector.kind = Kind.FORMULA;
+          super.startElement(uri, localName, qName, attrs);
+        }
+      });
+      xml.parse(new InputSource(sheet));
+    } catch (Throwable t) {
+      if (!(t instanceof Stop)) failure = t;
+    } finally {
+      try {
+        if (!closed) queue.put(END);
+      } catch (InterruptedException ignore) {
+        // reader đã đóng
+      }
+    }
+  }
+
+  /**
+   * Kiểu theo thuộc tính {@code t} (mặc định "n") và style {@code s} của phần tử {@code <c>}.
+   */
+  private static Kind kindOf(Attributes attrs, StylesTable styles) {
+    String t = attrs.getValue("t");
+    if (t == null || t.equals("n")) {
+      String s = attrs.getValue("s");
+      if (s != null && styles != null) {
+        XSSFCellStyle style = styles.getStyleAt(Integer.parseInt(s));
+        if (style != null && DateUtil.isADateFormat(style.getDataFormat(), style.getDataFormatString())) {
+          return Kind.DATE;
+        }
+      }
+      return Kind.NUMERIC;
+    }
+    return switch (t) {
+      case "s", "inlineStr", "str" -> Kind.STRING;
+      case "b" -> Kind.BOOLEAN;
+      case "e" -> Kind.ERROR;
+      default -> Kind.STRING;
+    };
+  }
+
+  /**
+   * Dừng parse khi caller đóng reader giữa chừng.
+   */
+  private static final class Stop extends RuntimeException {
+    Stop() {
+      super(null, null, false, false);
+    }
+  }
+
+  private final class Collector implements XSSFSheetXMLHandler.SheetContentsHandler {
+    private String[] cells = new String[16];
+    private Kind[] kinds = new Kind[16];
+    private Kind kind = Kind.BLANK; // kiểu của ô đang đọc, do handler SAX ghi
+    private int width;
+    private int nextCol;
+
+    @Override
+    public void startRow(int rowNum) {
+      this.width = 0;
+      this.nextCol = 0;
+    }
+
+    @Override
+    public void endRow(int rowNum) {
+      if (width == 0 && !emptyRows) return;
+      Row r = new Row(rowNum, Arrays.copyOf(cells, width), Arrays.copyOf(kinds, width));
+      Arrays.fill(cells, 0, width, null);
+      Arrays.fill(kinds, 0, width, null);
+      try {
+        queue.put(r);
+      } catch (InterruptedException e) {
+        throw new Stop();
+      }
+    }
+
+    @Override
+    public void cell(String ref, String formattedValue, XSSFComment comment) {
+      int col = ref == null ? nextCol : new CellReference(ref).getCol();
+      nextCol = col + 1;
+      if (formattedValue == null || formattedValue.isEmpty()) return;
+      if (col >= cells.length) {
+        int n = Math.max(cells.length * 2, col + 1);
+        cells = Arrays.copyOf(cells, n);
+        kinds = Arrays.copyOf(kinds, n);
+      }
+      cells[col] = formattedValue;
+      kinds[col] = kind;
+      width = Math.max(width, col + 1);
+    }
+  }
+
+  // ---- dò header ----
+
+  /**
+   * Cột chứa "question"/"answer" (không phân biệt hoa thường). Dùng cho IngestQA.
+   */
+  public static Map<String, Integer> detect(Row header) {
+    Map<String, Integer> m = new HashMap<>();
+    if (header != null) {
+      for (int c = 0; c < header.size(); c++) {
+        String low = header.get(c).trim().toLowerCase();
+        if (low.contains("question")) m.put("question", c);
+        if (low.contains("answer")) m.put("answer", c);
+      }
+    }
+    if (!m.containsKey("question") || !m.containsKey("answer"))
+      throw new IllegalStateException("Không tìm thấy cột question/answer");
+    return m;
+  }
+
+  /**
+   * Tên header (trim, lowercase) -> chỉ số cột; bỏ qua ô trống. Dùng cho NLPExtractor.
+   */
+  public static Map<String, Integer> mapHeader(Row header) {
+    Map<String, Integer> map = new HashMap<>();
+    if (header == null) return map;
+    for (int c = 0; c < header.size(); c++) {
+      String name = header.get(c);
+      if (!name.isEmpty()) map.put(name.trim().toLowerCase(), c);
+    }
+    return map;
+  }
+
+  /**
+   * Tìm index cột. Ưu tiên tên override; nếu không có thì dò theo danh sách alias. -1 nếu không thấy.
+   */
+  public static int findColumnIndex(Row header, String overrideName, List<String> aliases) {
+    int colCount = header.size();
+    // 1) Nếu có overrideName: match không phân biệt hoa thường, match “chứa”
+    if (overrideName != null && !overrideName.isBlank()) {
+      String needle = overrideName.trim().toLowerCase();
+      for (int c = 0; c < colCount; c++) {
+        if (header.get(c).trim().toLowerCase().contains(needle)) return c;
+      }
+    }
+    // 2) Dò theo alias
+    for (int c = 0; c < colCount; c++) {
+      String name = header.get(c).trim().toLowerCase();
+      if (name.isEmpty()) continue;
+      for (String a : aliases) {
+        if (name.contains(a)) return c;
+      }
+    }
+    return -1;
+  }
+}
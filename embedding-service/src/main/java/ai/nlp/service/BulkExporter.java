@@ -0,0 +1,170 @@
+package ai.nlp.service;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Xuất QA đã embed ra CSV cho {@code neo4j-admin database import full} thay vì ghi bằng Cypher.
+ * <p>
+ * Thư mục output:
+ * - {@code qa_nodes.csv}, {@code qa_chunk_nodes.csv}, {@code has_chunk_rels.csv}: file có header, embedding là
+ *   cột {@code float[]} (phần tử cách nhau bởi {@code ;}), nên được lưu thành mảng float32 như
+ *   {@code db.create.setNodeVectorProperty}
+ * - {@code import.sh}: lệnh neo4j-admin (database phải đang dừng)
+ * - {@code post-import.cypher} + {@code post-import.sh}: sau khi start database, tạo constraint và vector index
+ *   (số chiều lấy từ vector đầu tiên) rồi chờ index ONLINE
+ * <p>
+ * Property và tên index theo {@link VectorIndexManager.Version}; version khác mặc định được activate luôn
+ * trong post-import vì database import là database mới.
+ * <p>
+ * Chỉ thread writer của {@link IngestPipeline} gọi {@link #write}.
+ */
+final class BulkExporter implements Closeable {
+  private static final String ARRAY_DELIMITER = ";";
+
+  private final Path dir;
+  private final String similarity;
+  private final VectorIndexManager.Version version;
+  private final BufferedWriter qa;
+  private final BufferedWriter chunks;
+  private final BufferedWriter rels;
+  private int dim = -1;
+  private long qaCount, chunkCount;
+
+  BulkExporter(Path dir, String similarity, VectorIndexManager.Version version) throws IOException {
+    this.dir = dir;
+    this.similarity = similarity;
+    this.version = version;
+    Files.createDirectories(dir);
+    qa = open("qa_nodes.csv", "id:ID(QA),question,answer,%s,%s:float[],:LABEL"
+        .formatted(version.hashProperty(), version.property()));
+    chunks = open("qa_chunk_nodes.csv", "id:ID(QAChunk),qaId,seq:int,text,indexVersion,%s:float[],:LABEL"
+        .formatted(version.property()));
+    rels = open("has_chunk_rels.csv", ":START_ID(QA),:END_ID(QAChunk),:TYPE");
+  }
+
+  /**
+   * Ghi một batch đã qua {@link IngestQA#attach}.
+   */
+  @SuppressWarnings("unchecked")
+  void write(List<Map<String, Object>> rows) throws IOException {
+    for (Map<String, Object> row : rows) {
+      String id = (String) row.get("id");
+      float[] emb = (float[]) row.get("emb");
+      if (dim < 0) dim = emb.length;
+      qa.write(csv(id) + ',' + csv((String) row.get("q")) + ',' + csv((String) row.get("a")) + ','
+          + csv((String) row.get("hash")) + ',' + array(emb) + ",QA\n");
+      qaCount++;
+
+      for (Map<String, Object> ch : (List<Map<String, Object>>) row.get("chunks")) {
+        String chId = version.chunkId(id, (Integer) ch.get("seq"));
+        chunks.write(csv(chId) + ',' + csv(id) + ',' + ch.get("seq") + ',' + csv((String) ch.get("text")) + ','
+            + csv(version.tag()) + ',' + array((float[]) ch.get("emb")) + ",QAChunk\n");
+        rels.write(csv(id) + ',' + csv(chId) + ",HAS_CHUNK\n");
+        chunkCount++;
+      }
+    }
+  }
+
+  /**
+   * Đóng các file CSV và sinh script import / post-import.
+   */
+  @Override
+  public void close() throws IOException {
+    qa.close();
+    chunks.close();
+    rels.close();
+    if (dim < 0) return; // không có dòng nào
+
+    writeScript("import.sh", """
+        #!/bin/sh
+        # Database phải đang dừng. Chạy trên máy Neo4j, với file CSV trong thư mục này.
+        set -e
+        DB="${NEO4J_DB:-rag}"
+        cd "$(dirname "$0")"
+        neo4j-admin database import full "$DB" \\
+          --overwrite-destination=true \\
+          --array-delimiter='%s' \\
+          --multiline-fields=true \\
+          --nodes=qa_nodes.csv \\
+          --nodes=qa_chunk_nodes.csv \\
+          --relationships=has_chunk_rels.csv
+        echo "Import xong. Start database (CREATE DATABASE $DB nếu chưa có) rồi chạy post-import.sh"
+        """.formatted(ARRAY_DELIMITER));
+
+    Files.writeString(dir.resolve("post-import.cypher"), """
+        // cùng tên với SchemaMigrations: lần ingest sau chỉ ghi nhận migration, không tạo trùng
+        CREATE CONSTRAINT qa_id IF NOT EXISTS FOR (n:QA) REQUIRE n.id IS UNIQUE;
+        CREATE CONSTRAINT qa_chunk_id IF NOT EXISTS FOR (c:QAChunk) REQUIRE c.id IS UNIQUE;
+        CREATE VECTOR INDEX %1$s IF NOT EXISTS
+        FOR (n:QA) ON (n.%5$s)
+        OPTIONS {indexConfig: {`vector.dimensions`: %3$d, `vector.similarity_function`: '%4$s'}};
+        CREATE VECTOR INDEX %2$s IF NOT EXISTS
+        FOR (c:QAChunk) ON (c.%5$s)
+        OPTIONS {indexConfig: {`vector.dimensions`: %3$d, `vector.similarity_function`: '%4$s'}};
+        CALL db.awaitIndexes(3600);
+        SHOW INDEXES YIELD name, type, state, populationPercent
+        WHERE name IN ['%1$s', '%2$s']
+        RETURN name, type, state, populationPercent;
+        """.formatted(version.qaIndex(), version.chunkIndex(), dim, similarity, version.property())
+        + (version.tag().isEmpty() ? "" : """
+        MERGE (c:VectorIndexConfig {name: 'qa'})
+        SET c.version = '%s', c.chunkIndex = '%s', c.activatedAt = datetime();
+        """.formatted(version.tag(), version.chunkIndex())),
+        StandardCharsets.UTF_8);
+
+    writeScript("post-import.sh", """
+        #!/bin/sh
+        # Chạy sau khi database đã start: tạo constraint + vector index và chờ index ONLINE.
+        set -e
+        cd "$(dirname "$0")"
+        cypher-shell -a "${NEO4J_URI:-bolt://localhost:7687}" -u "${NEO4J_USER:-neo4j}" -p "${NEO4J_PASS}" \\
+          -d "${NEO4J_DB:-rag}" -f post-import.cypher
+        """);
+
+    System.out.printf("📁 Bulk export: %d QA, %d chunk, dim=%d -> %s%n", qaCount, chunkCount, dim, dir);
+  }
+
+  // ---- helpers ----
+
+  private BufferedWriter open(String name, String header) throws IOException {
+    BufferedWriter w = Files.newBufferedWriter(dir.resolve(name), StandardCharsets.UTF_8);
+    w.write(header);
+    w.write('\n');
+    return w;
+  }
+
+  private void writeScript(String name, String body) throws IOException {
+    Path p = dir.resolve(name);
+    Files.writeString(p, body, StandardCharsets.UTF_8);
+    try {
+      Files.setPosixFilePermissions(p, PosixFilePermissions.fromString("rwxr-xr-x"));
+    } catch (UnsupportedOperationException ignore) {
+      // Windows: chạy bằng sh import.sh
+    }
+  }
+
+  /**
+   * Chuỗi CSV luôn được đặt trong dấu nháy kép, nháy kép bên trong nhân đôi (xuống dòng giữ nguyên,
+   * import chạy với {@code --multiline-fields=true}).
+   */
+  private static String csv(String s) {
+    return '"' + (s == null ? "" : s.replace("\"", "\"\"")) + '"';
+  }
+
+  private static String array(float[] v) {
+    StringBuilder sb = new StringBuilder(v.length * 12);
+    for (int i = 0; i < v.length; i++) {
+      if (i > 0) sb.append(ARRAY_DELIMITER);
+      sb.append(v[i]);
+    }
+    return sb.toString();
+  }
+}
@@ -0,0 +1,46 @@
+package ai.nlp.service;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Nguồn embedding E5: tự thêm prefix "query: "/"passage: ", trả vector theo đúng thứ tự đầu vào.
+ * <p>
+ * - {@link EmbeddingClient}: gọi TEI qua HTTP (mặc định)
+ * - {@link OnnxEmbedder}: chạy model E5 đã export ONNX ngay trong JVM (bỏ chặng HTTP + JSON)
+ */
+public interface Embedder extends Closeable {
+
+  float[] embedE5(String text, boolean isQuery) throws IOException;
+
+  float[][] embedBatchE5(List<String> texts, boolean isQuery) throws IOException;
+
+  CompletableFuture<float[]> embedAsync(String text, boolean isQuery);
+
+  CompletableFuture<float[][]> embedBatchAsync(List<String> texts, boolean isQuery);
+
+  /**
+   * Chọn backend theo env {@code EMBED_BACKEND}: {@code tei} (mặc định, dùng {@code teiUrl})
+   * hoặc {@code onnx} (đọc model từ {@code ONNX_MODEL_DIR}).
+   */
+  static Embedder fromEnv(String teiUrl) {
+    String backend = System.getenv().getOrDefault("EMBED_BACKEND", "tei");
+    return switch (backend.toLowerCase()) {
+      case "tei" -> new EmbeddingClient(teiUrl);
+      case "onnx" -> {
+        String dir = System.getenv("ONNX_MODEL_DIR");
+        if (dir == null) throw new IllegalStateException("EMBED_BACKEND=onnx requires ONNX_MODEL_DIR");
+        try {
+          yield OnnxEmbedder.open(Path.of(dir), OnnxEmbedder.Options.fromEnv());
+        } catch (IOException e) {
+          throw new UncheckedIOException("Cannot load ONNX model from " + dir, e);
+        }
+      }
+      default -> throw new IllegalArgumentException("Unknown EMBED_BACKEND: " + backend);
+    };
+  }
+}
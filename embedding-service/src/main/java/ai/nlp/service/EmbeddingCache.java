@@ -0,0 +1,217 @@
+package ai.nlp.service;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Cache embedding trên đĩa, khoá theo nội dung: SHA-256(modelId + text đã có prefix E5).
+ * <p>
+ * File dữ liệu {@code embeddings.bin} chỉ ghi nối (append-only), được map vào bộ nhớ theo từng segment
+ * {@link #SEGMENT_BYTES}; record không bao giờ vắt qua hai segment.
+ * Header: [magic int][version int][end long] — {@code end} chỉ được cập nhật sau khi record đã ghi xong,
+ * nên record dở dang khi process chết sẽ bị bỏ qua ở lần mở sau.
+ * Record: [sha256 32 bytes][dim int][dim × float32 little-endian].
+ * <p>
+ * File index {@code embeddings.idx} là danh sách [sha256 32 bytes][offset long] ghi nối song song,
+ * để lần mở sau không phải quét lại toàn bộ file dữ liệu. Nếu index thiếu/hỏng thì dựng lại từ file dữ liệu.
+ */
+public final class EmbeddingCache implements Closeable {
+  private static final int MAGIC = 0x45354543; // "E5EC"
+  private static final int VERSION = 1;
+  private static final int HEADER_BYTES = 16;
+  private static final int KEY_BYTES = 32;
+  private static final int RECORD_HEADER_BYTES = KEY_BYTES + 4;
+  private static final int INDEX_ENTRY_BYTES = KEY_BYTES + 8;
+  static final long SEGMENT_BYTES = 1L << 28; // 256 MB
+
+  record Key(long h0, long h1, long h2, long h3) {
+    static Key of(byte[] sha) {
+      return read(ByteBuffer.wrap(sha));
+    }
+
+    static Key read(ByteBuffer b) {
+      return new Key(b.getLong(), b.getLong(), b.getLong(), b.getLong());
+    }
+
+    void writeTo(ByteBuffer b) {
+      b.putLong(h0).putLong(h1).putLong(h2).putLong(h3);
+    }
+  }
+
+  private final byte[] modelId;
+  private final FileChannel data;
+  private final FileChannel index;
+  private final Map<Key, Long> offsets = new ConcurrentHashMap<>();
+  private volatile MappedByteBuffer[] segments = new MappedByteBuffer[0];
+  private long end;
+
+  /**
+   * Mở (hoặc tạo) cache trong thư mục {@code dir}. {@code modelId} phải đổi khi đổi model/TEI config,
+   * để vector cũ không bị dùng nhầm.
+   */
+  public static EmbeddingCache open(Path dir, String modelId) throws IOException {
+    Files.createDirectories(dir);
+    return new EmbeddingCache(dir, modelId);
+  }
+
+  private EmbeddingCache(Path dir, String modelId) throws IOException {
+    this.modelId = modelId.getBytes(StandardCharsets.UTF_8);
+    this.data = FileChannel.open(dir.resolve("embeddings.bin"),
+        StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    this.index = FileChannel.open(dir.resolve("embeddings.idx"),
+        StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+    MappedByteBuffer first = segment(0);
+    if (first.getInt(0) == 0) {
+      first.putInt(0, MAGIC).putInt(4, VERSION).putLong(8, HEADER_BYTES);
+    } else if (first.getInt(0) != MAGIC || first.getInt(4) != VERSION) {
+      throw new IOException("Not an embedding cache (or unsupported version): " + dir);
+    }
+    this.end = first.getLong(8);
+    segment((int) ((end - 1) / SEGMENT_BYTES)); // map mọi segment đã có dữ liệu
+    if (!loadIndex()) rebuildIndex();
+  }
+
+  /**
+   * Key của một text đã có prefix ("query: " / "passage: ").
+   */
+  public Key key(String prefixedText) {
+    MessageDigest md = sha256();
+    md.update(modelId);
+    md.update((byte) 0);
+    md.update(prefixedText.getBytes(StandardCharsets.UTF_8));
+    return Key.of(md.digest());
+  }
+
+  /**
+   * Vector đã cache, hoặc null.
+   */
+  public float[] get(Key key) {
+    Long off = offsets.get(key);
+    if (off == null) return null;
+    ByteBuffer seg = segments[(int) (off / SEGMENT_BYTES)].duplicate().order(ByteOrder.LITTLE_ENDIAN);
+    int pos = (int) (off % SEGMENT_BYTES);
+    float[] out = new float[seg.getInt(pos + KEY_BYTES)];
+    seg.position(pos + RECORD_HEADER_BYTES);
+    seg.asFloatBuffer().get(out);
+    return out;
+  }
+
+  public synchronized void put(Key key, float[] vec) throws IOException {
+    if (offsets.containsKey(key)) return;
+    long recBytes = RECORD_HEADER_BYTES + 4L * vec.length;
+    if (recBytes > SEGMENT_BYTES) throw new IllegalArgumentException("Embedding too large: dim=" + vec.length);
+
+    long off = end;
+    if (off / SEGMENT_BYTES != (off + recBytes - 1) / SEGMENT_BYTES) {
+      off = (off / SEGMENT_BYTES + 1) * SEGMENT_BYTES; // không vắt qua segment
+    }
+    ByteBuffer seg = segment((int) (off / SEGMENT_BYTES)).duplicate().order(ByteOrder.LITTLE_ENDIAN);
+    seg.position((int) (off % SEGMENT_BYTES));
+    key.writeTo(seg);
+    seg.putInt(vec.length);
+    seg.asFloatBuffer().put(vec);
+
+    ByteBuffer entry = ByteBuffer.allocate(INDEX_ENTRY_BYTES);
+    key.writeTo(entry);
+    entry.putLong(off).flip();
+    while (entry.hasRemaining()) index.write(entry, index.size());
+
+    end = off + recBytes;
+    segments[0].putLong(8, end);
+    offsets.put(key, off);
+  }
+
+  public int size() {
+    return offsets.size();
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    for (MappedByteBuffer m : segments) m.force();
+    index.force(false);
+    data.close();
+    index.close();
+  }
+
+  // ---- internals ----
+
+  private synchronized MappedByteBuffer segment(int i) throws IOException {
+    MappedByteBuffer[] cur = segments;
+    if (i < cur.length) return cur[i];
+    MappedByteBuffer[] grown = Arrays.copyOf(cur, i + 1);
+    for (int s = cur.length; s <= i; s++) {
+      grown[s] = data.map(FileChannel.MapMode.READ_WRITE, s * SEGMENT_BYTES, SEGMENT_BYTES);
+    }
+    segments = grown;
+    return grown[i];
+  }
+
+  /**
+   * Đọc index; bỏ các entry trỏ quá {@code end} (record chưa commit). Trả false nếu index không khớp dữ liệu.
+   */
+  private boolean loadIndex() throws IOException {
+    long n = index.size() / INDEX_ENTRY_BYTES;
+    ByteBuffer all = ByteBuffer.allocate((int) Math.min(n * INDEX_ENTRY_BYTES, Integer.MAX_VALUE));
+    while (all.hasRemaining() && index.read(all, all.position()) > 0) {
+      // đọc hết
+    }
+    all.flip();
+    long validBytes = 0;
+    while (all.remaining() >= INDEX_ENTRY_BYTES) {
+      Key key = Key.read(all);
+      long off = all.getLong();
+      if (off < HEADER_BYTES || off >= end) break;
+      offsets.put(key, off);
+      validBytes += INDEX_ENTRY_BYTES;
+    }
+    index.truncate(validBytes);
+    // mỗi record phải có entry: nếu dữ liệu có record mà index rỗng thì index đã mất
+    return end == HEADER_BYTES || !offsets.isEmpty();
+  }
+
+  private void rebuildIndex() throws IOException {
+    offsets.clear();
+    index.truncate(0);
+    long off = HEADER_BYTES;
+    ByteBuffer entry = ByteBuffer.allocate(INDEX_ENTRY_BYTES);
+    while (off < end) {
+      ByteBuffer seg = segment((int) (off / SEGMENT_BYTES)).duplicate().order(ByteOrder.LITTLE_ENDIAN);
+      int pos = (int) (off % SEGMENT_BYTES);
+      int dim = pos + RECORD_HEADER_BYTES <= SEGMENT_BYTES ? seg.getInt(pos + KEY_BYTES) : 0;
+      if (dim <= 0) { // phần đệm cuối segment
+        off = (off / SEGMENT_BYTES + 1) * SEGMENT_BYTES;
+        continue;
+      }
+      seg.position(pos);
+      Key key = Key.read(seg);
+      offsets.put(key, off);
+      entry.clear();
+      key.writeTo(entry);
+      entry.putLong(off).flip();
+      while (entry.hasRemaining()) index.write(entry, index.size());
+      off += RECORD_HEADER_BYTES + 4L * dim;
+    }
+  }
+
+  private static MessageDigest sha256() {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+}
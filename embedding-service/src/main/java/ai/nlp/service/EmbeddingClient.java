@@ -1,73 +1,524 @@
 package ai.nlp.service;
 
-import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import okhttp3.*;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 
-public class EmbeddingClient {
-  private final String url;
+public class EmbeddingClient implements Embedder {
+  // Giới hạn mặc định của TEI: --max-client-batch-size=32, --max-batch-tokens=16384
+  private static final int DEFAULT_MAX_BATCH = 32;
+  private static final int DEFAULT_MAX_BATCH_TOKENS = 16384;
+  private static final int DEFAULT_MAX_IN_FLIGHT = 8;
+
+  /**
+   * Cấu hình client.
+   *
+   * @param maxBatch       số text tối đa mỗi request
+   * @param maxBatchTokens tổng token ước lượng tối đa mỗi request
+   * @param base64         xin TEI trả {@code encoding_format: "base64"} (float32 little-endian) thay vì mảng số
+   *                       thập phân; chỉ route OpenAI-compatible (/v1/embeddings) hỗ trợ
+   * @param maxInFlight    số request TEI đang bay tối đa (sync + async); vượt quá thì caller bị chặn chờ
+   * @param hedge          khi có nhiều replica: request chậm hơn p95 gần nhất thì gửi thêm một bản sang replica khác
+   * @param hedgeMinDelayMs ngưỡng hedge tối thiểu (và là ngưỡng khi chưa đủ mẫu latency)
+   * @param modelId        định danh model TEI, là một phần của key cache
+   * @param cacheDir       thư mục {@link EmbeddingCache} trên đĩa; null = không cache
+   * @param queryCacheSize số câu hỏi giữ trong {@link QueryEmbeddingCache} cho {@code embedE5(..., true)}; 0 = tắt
+   * @param projection     giảm chiều áp cho mọi vector trả ra (passage lẫn query); null = giữ nguyên.
+   *                       Cache trên đĩa lưu vector gốc nên đổi projection không cần embed lại
+   * @param queryBatchWindowMicros cửa sổ gom các query embedding đồng thời thành một request TEI
+   *                       ({@link QueryMicroBatcher}); 0 = tắt, mỗi query một request
+   */
+  public record Options(int maxBatch, int maxBatchTokens, boolean base64, int maxInFlight,
+                        boolean hedge, long hedgeMinDelayMs, String modelId, Path cacheDir, int queryCacheSize,
+                        EmbeddingProjection projection, long queryBatchWindowMicros) {
+    public static Options fromEnv() {
+      Map<String, String> env = System.getenv();
+      EmbeddingProjection projection;
+      try {
+        projection = EmbeddingProjection.parse(env.get("EMBED_PROJECTION"));
+      } catch (IOException e) {
+        throw new UncheckedIOException("Cannot load EMBED_PROJECTION=" + env.get("EMBED_PROJECTION"), e);
+      }
+      return new Options(
+          Integer.parseInt(env.getOrDefault("TEI_MAX_BATCH", String.valueOf(DEFAULT_MAX_BATCH))),
+          Integer.parseInt(env.getOrDefault("TEI_MAX_BATCH_TOKENS", String.valueOf(DEFAULT_MAX_BATCH_TOKENS))),
+          "base64".equalsIgnoreCase(env.getOrDefault("TEI_ENCODING", "float")),
+          Integer.parseInt(env.getOrDefault("TEI_MAX_IN_FLIGHT", String.valueOf(DEFAULT_MAX_IN_FLIGHT))),
+          Boolean.parseBoolean(env.getOrDefault("TEI_HEDGE", "false")),
+          Long.parseLong(env.getOrDefault("TEI_HEDGE_MIN_MS", "50")),
+          env.getOrDefault("TEI_MODEL_ID", "intfloat/multilingual-e5-base"),
+          env.containsKey("EMBED_CACHE_DIR") ? Path.of(env.get("EMBED_CACHE_DIR")) : null,
+          Integer.parseInt(env.getOrDefault("TEI_QUERY_CACHE_SIZE", "4096")),
+          projection,
+          Long.parseLong(env.getOrDefault("TEI_QUERY_BATCH_WINDOW_US", "2000")));
+    }
+
+    public Options withProjection(EmbeddingProjection p) {
+      return new Options(maxBatch, maxBatchTokens, base64, maxInFlight, hedge, hedgeMinDelayMs, modelId, cacheDir,
+          queryCacheSize, p, queryBatchWindowMicros);
+    }
+  }
+
+  private final TeiReplicaPool pool;
   private final OkHttpClient http;
   private final ObjectMapper mapper = new ObjectMapper();
+  private final EmbeddingDecoder decoder = new EmbeddingDecoder(mapper.getFactory());
+  private final int maxBatch;
+  private final int maxBatchTokens;
+  private final boolean base64;
+  private final Semaphore inFlight;
+  private final boolean hedge;
+  private final long hedgeMinDelayMs;
+  private final EmbeddingCache cache;
+  private final QueryEmbeddingCache queryCache;
+  private final EmbeddingProjection projection;
+  private final QueryMicroBatcher queryBatcher;
+  private final LatencyHistogram callLatency = new LatencyHistogram();
 
+  /**
+   * {@code url} có thể là một endpoint hoặc nhiều replica cách nhau bởi dấu phẩy.
+   */
   public EmbeddingClient(String url) {
-    this.url = url;
+    this(url, Options.fromEnv());
+  }
+
+  public EmbeddingClient(String url, Options opts) {
+    this(TeiReplicaPool.parseUrls(url), opts);
+  }
+
+  public EmbeddingClient(List<String> urls, Options opts) {
+    this.pool = new TeiReplicaPool(urls);
+    this.maxBatch = Math.max(1, opts.maxBatch());
+    this.maxBatchTokens = Math.max(1, opts.maxBatchTokens());
+    this.base64 = opts.base64();
+    this.hedge = opts.hedge();
+    this.hedgeMinDelayMs = Math.max(1, opts.hedgeMinDelayMs());
+    this.projection = opts.projection();
+    this.queryCache = opts.queryCacheSize() >= 2 ? new QueryEmbeddingCache(opts.queryCacheSize()) : null;
+    try {
+      this.cache = opts.cacheDir() == null ? null : EmbeddingCache.open(opts.cacheDir(), opts.modelId());
+    } catch (IOException e) {
+      throw new UncheckedIOException("Cannot open embedding cache " + opts.cacheDir(), e);
+    }
+    int maxInFlight = Math.max(1, opts.maxInFlight());
+    this.inFlight = new Semaphore(maxInFlight);
+
+    // mặc định Dispatcher chỉ cho 5 request/host, nâng lên để không nghẽn trước semaphore
+    Dispatcher dispatcher = new Dispatcher();
+    dispatcher.setMaxRequests(maxInFlight);
+    dispatcher.setMaxRequestsPerHost(maxInFlight);
     this.http = new OkHttpClient.Builder()
+        .dispatcher(dispatcher)
+        .connectionPool(new ConnectionPool(maxInFlight, 5, TimeUnit.MINUTES))
         .connectTimeout(30, TimeUnit.SECONDS)
         .readTimeout(120, TimeUnit.SECONDS)
         .build();
+    this.queryBatcher = opts.queryBatchWindowMicros() > 0
+        ? new QueryMicroBatcher(this, opts.queryBatchWindowMicros(), maxBatch)
+        : null;
   }
 
+  @Override
   public float[] embedE5(String text, boolean isQuery) throws IOException {
-    String prefixed = (isQuery ? "query: " : "passage: ") + text;
+    if (isQuery && queryCache != null) return queryCache.get(text, this::embedQuery);
+    if (isQuery) return embedQuery(text);
+    return embedPrefixed(List.of(prefix(text, false)))[0];
+  }
 
-    RequestBody body = RequestBody.create(
-        mapper.writeValueAsBytes(Map.of("input", List.of(prefixed))),
-        MediaType.parse("application/json"));
+  /**
+   * Embed nhiều text, trả về theo đúng thứ tự đầu vào.
+   * Input được cắt thành nhiều request: mỗi request tối đa {@code maxBatch} text
+   * và tổng số token ước lượng không vượt {@code maxBatchTokens},
+   * nên text ngắn được gom nhiều hơn, text dài thì ít hơn.
+   */
+  @Override
+  public float[][] embedBatchE5(List<String> texts, boolean isQuery) throws IOException {
+    return embedPrefixed(prefixAll(texts, isQuery));
+  }
 
-    Request req = new Request.Builder()
-        .url(url)                       // ví dụ http://localhost:8080/embeddings
-        .post(body)
-        .header("Accept", "application/json")
-        .build();
+  /**
+   * Như {@link #embedE5} nhưng không chặn thread gọi trong lúc chờ TEI.
+   * Nếu đã đủ {@code maxInFlight} request đang bay, thread gọi chờ tới khi có chỗ (backpressure).
+   */
+  @Override
+  public CompletableFuture<float[]> embedAsync(String text, boolean isQuery) {
+    if (isQuery && queryBatcher != null) return queryBatcher.submit(text);
+    return embedPrefixedAsync(List.of(prefix(text, isQuery))).thenApply(v -> v[0]);
+  }
+
+  /**
+   * Như {@link #embedBatchE5} nhưng các request con được gửi song song (giới hạn bởi {@code maxInFlight}).
+   */
+  @Override
+  public CompletableFuture<float[][]> embedBatchAsync(List<String> texts, boolean isQuery) {
+    return embedPrefixedAsync(prefixAll(texts, isQuery));
+  }
+
+  /**
+   * Hit/miss/eviction của cache câu hỏi, hoặc null nếu cache tắt.
+   */
+  public QueryEmbeddingCache.Stats queryCacheStats() {
+    return queryCache == null ? null : queryCache.stats();
+  }
+
+  /**
+   * Độ trễ từng HTTP call thành công tới TEI (kể cả hedge/failover), cho báo cáo ingest.
+   */
+  LatencyHistogram callLatency() {
+    return callLatency;
+  }
+
+  /**
+   * Số lượt TEI / số query đã đi qua micro-batcher, hoặc null nếu tắt.
+   */
+  public QueryMicroBatcher.Stats queryBatchStats() {
+    return queryBatcher == null ? null : queryBatcher.stats();
+  }
 
-    try (Response resp = http.newCall(req).execute()) {
-      if (!resp.isSuccessful()) {
-        // đọc nội dung lỗi (nếu có) 1 LẦN và đưa vào thông báo
-        String errPayload = safeBodyString(resp.body());
-        throw new IOException("TEI HTTP " + resp.code() + " - " + resp.message()
-            + (errPayload == null ? "" : " | body: " + truncate(errPayload, 500)));
+  @Override
+  public void close() throws IOException {
+    if (queryBatcher != null) queryBatcher.close();
+    http.dispatcher().executorService().shutdown();
+    http.connectionPool().evictAll();
+    if (cache != null) cache.close();
+  }
+
+  // ---- cache + TEI ----
+
+  /**
+   * Một query lẻ: qua micro-batcher nếu bật để gom với các query đồng thời khác.
+   */
+  private float[] embedQuery(String text) throws IOException {
+    if (queryBatcher != null) return queryBatcher.embed(text);
+    return embedPrefixed(List.of(prefix(text, true)))[0];
+  }
+
+  private float[][] embedPrefixed(List<String> prefixed) throws IOException {
+    Lookup l = new Lookup(prefixed);
+    for (int[] r : split(l.todo)) l.store(r[0], post(l.todo.subList(r[0], r[1])));
+    return project(l.out);
+  }
+
+  private CompletableFuture<float[][]> embedPrefixedAsync(List<String> prefixed) {
+    Lookup l = new Lookup(prefixed);
+    List<CompletableFuture<Void>> parts = new ArrayList<>();
+    for (int[] r : split(l.todo)) {
+      parts.add(postAsync(l.todo.subList(r[0], r[1])).thenAccept(v -> l.store(r[0], v)));
+    }
+    return CompletableFuture.allOf(parts.toArray(new CompletableFuture[0])).thenApply(x -> project(l.out));
+  }
+
+  private float[][] project(float[][] out) {
+    if (projection != null) {
+      for (int i = 0; i < out.length; i++) out[i] = projection.apply(out[i]);
+    }
+    return out;
+  }
+
+  /**
+   * Kết quả một lượt embed: vector lấy được từ cache điền sẵn vào {@code out},
+   * phần còn thiếu ({@code todo}) gửi TEI rồi ghi lại qua {@link #store}.
+   * {@code todo} được sắp theo độ dài để mỗi request TEI gồm các text dài tương đương,
+   * giảm padding khi TEI gom batch.
+   */
+  private final class Lookup {
+    final float[][] out;
+    final List<String> todo;
+    private final int[] missAt;
+    private final EmbeddingCache.Key[] missKeys;
+
+    Lookup(List<String> prefixed) {
+      out = new float[prefixed.size()][];
+      List<Integer> misses = new ArrayList<>(prefixed.size());
+      EmbeddingCache.Key[] keys = cache == null ? null : new EmbeddingCache.Key[prefixed.size()];
+      for (int i = 0; i < prefixed.size(); i++) {
+        if (cache != null) {
+          keys[i] = cache.key(prefixed.get(i));
+          float[] hit = cache.get(keys[i]);
+          if (hit != null) {
+            out[i] = hit;
+            continue;
+          }
+        }
+        misses.add(i);
       }
+      if (misses.size() > 1) misses.sort(Comparator.comparingInt(i -> prefixed.get(i).length()));
 
-      ResponseBody rb = resp.body();
-      if (rb == null) throw new IOException("Empty response body from TEI.");
+      todo = new ArrayList<>(misses.size());
+      missAt = new int[misses.size()];
+      missKeys = keys == null ? null : new EmbeddingCache.Key[misses.size()];
+      for (int j = 0; j < misses.size(); j++) {
+        int i = misses.get(j);
+        missAt[j] = i;
+        if (keys != null) missKeys[j] = keys[i];
+        todo.add(prefixed.get(i));
+      }
+    }
 
-      // ĐỌC MỘT LẦN bằng stream -> parse JSON
-      try (InputStream is = rb.byteStream()) {
-        JsonNode root = mapper.readTree(is);
+    /**
+     * Ghi kết quả TEI cho todo[from .. from + v.length).
+     */
+    void store(int from, float[][] v) {
+      for (int i = 0; i < v.length; i++) {
+        out[missAt[from + i]] = v[i];
+        if (cache == null) continue;
+        try {
+          cache.put(missKeys[from + i], v[i]);
+        } catch (IOException e) {
+          // cache chỉ là tối ưu: lỗi ghi không làm hỏng kết quả embed
+          System.err.println("⚠️ Embedding cache write failed: " + e.getMessage());
+        }
+      }
+    }
+  }
+
+  /**
+   * Cắt input thành các đoạn [from, to) theo giới hạn số text và token của một request.
+   */
+  private List<int[]> split(List<String> prefixed) {
+    List<int[]> ranges = new ArrayList<>();
+    int start = 0, count = 0, tokens = 0;
+    for (int i = 0; i < prefixed.size(); i++) {
+      int t = estimateTokens(prefixed.get(i));
+      if (count > 0 && (count >= maxBatch || tokens + t > maxBatchTokens)) {
+        ranges.add(new int[]{start, i});
+        start = i;
+        count = 0;
+        tokens = 0;
+      }
+      count++;
+      tokens += t;
+    }
+    if (count > 0) ranges.add(new int[]{start, prefixed.size()});
+    return ranges;
+  }
 
-        JsonNode embNode = root.get("embeddings");
-        if (embNode != null && embNode.isArray() && embNode.size() > 0) {
-          return toFloatArray(embNode.get(0));
+  private float[][] post(List<String> inputs) throws IOException {
+    try {
+      return postAsync(inputs).get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting for TEI");
+    } catch (ExecutionException e) {
+      Throwable c = e.getCause();
+      if (c instanceof IOException io) throw io;
+      if (c instanceof RuntimeException re) throw re;
+      throw new IOException(c);
+    }
+  }
+
+  private CompletableFuture<float[][]> postAsync(List<String> inputs) {
+    CompletableFuture<float[][]> result = new CompletableFuture<>();
+    RequestBody body;
+    try {
+      body = buildBody(inputs);
+      acquire();
+    } catch (IOException e) {
+      result.completeExceptionally(e);
+      return result;
+    }
+
+    Exchange ex = new Exchange(inputs.size(), body, result);
+    TeiReplicaPool.Replica primary = pool.pick(null);
+    ex.launch(primary);
+    if (hedge && pool.size() > 1) {
+      long delay = Math.max(hedgeMinDelayMs, pool.p95Millis());
+      HedgeTimer.INSTANCE.schedule(() -> ex.hedge(primary), delay, TimeUnit.MILLISECONDS);
+    }
+    return result;
+  }
+
+  /**
+   * Một lượt gọi TEI: request chính, có thể thêm một hedged request (khi request chính chậm hơn p95)
+   * hoặc một lần chuyển replica (khi request chính lỗi do replica). Kết quả đầu tiên thành công thắng,
+   * các call còn lại bị huỷ. Mỗi call giữ một permit của {@code inFlight}.
+   */
+  private final class Exchange {
+    private final int expected;
+    private final RequestBody body;
+    private final CompletableFuture<float[][]> result;
+    private final List<Call> calls = new ArrayList<>(2);
+    private int running;
+    private boolean failedOver;
+
+    Exchange(int expected, RequestBody body, CompletableFuture<float[][]> result) {
+      this.expected = expected;
+      this.body = body;
+      this.result = result;
+      result.whenComplete((v, e) -> cancelAll());
+    }
+
+    /**
+     * Caller đã giữ sẵn một permit cho call này.
+     */
+    void launch(TeiReplicaPool.Replica r) {
+      Call call = http.newCall(new Request.Builder()
+          .url(r.url)                   // ví dụ http://localhost:8080/embeddings
+          .post(body)
+          .header("Accept", "application/json")
+          .build());
+      synchronized (this) {
+        calls.add(call);
+        running++;
+      }
+      r.outstanding.incrementAndGet();
+      long start = System.nanoTime();
+
+      call.enqueue(new Callback() {
+        @Override
+        public void onFailure(Call c, IOException e) {
+          done(r, start, null, e, !c.isCanceled());
         }
 
-        JsonNode data = root.get("data");
-        if (data != null && data.isArray() && data.size() > 0) {
-          JsonNode e = data.get(0).get("embedding");
-          if (e != null && e.isArray()) return toFloatArray(e);
+        @Override
+        public void onResponse(Call c, Response resp) {
+          float[][] v = null;
+          Exception err = null;
+          boolean replicaFault = false;
+          try (resp) {
+            if (resp.isSuccessful()) {
+              v = read(resp, expected);
+            } else {
+              // 5xx/429: replica hỏng hoặc quá tải; 4xx khác là lỗi của request
+              replicaFault = resp.code() >= 500 || resp.code() == 429;
+              err = httpError(resp);
+            }
+          } catch (Exception e) {
+            err = e;
+          }
+          done(r, start, v, err, replicaFault);
         }
+      });
+    }
 
-        throw new IOException("Unexpected TEI response format: " + truncate(root.toString(), 500));
+    void hedge(TeiReplicaPool.Replica primary) {
+      if (result.isDone()) return;
+      TeiReplicaPool.Replica alt = pool.pick(primary);
+      // hết permit nghĩa là TEI đang bão hoà, hedge chỉ làm tăng tải
+      if (alt == null || !inFlight.tryAcquire()) return;
+      if (result.isDone()) {
+        inFlight.release();
+        return;
       }
+      launch(alt);
+    }
+
+    private void done(TeiReplicaPool.Replica r, long startNanos, float[][] v, Exception err, boolean replicaFault) {
+      r.outstanding.decrementAndGet();
+      inFlight.release();
+      if (err == null) {
+        r.onSuccess();
+        long nanos = System.nanoTime() - startNanos;
+        pool.recordLatency(TimeUnit.NANOSECONDS.toMillis(nanos));
+        callLatency.record(nanos);
+        result.complete(v);
+        return;
+      }
+      if (replicaFault) r.onFailure(System.currentTimeMillis());
+
+      TeiReplicaPool.Replica alt = null;
+      synchronized (this) {
+        if (--running > 0 || result.isDone()) return;
+        if (replicaFault && !failedOver && pool.size() > 1) {
+          failedOver = true;
+          alt = pool.pick(r);
+        }
+      }
+      if (alt != null && inFlight.tryAcquire()) {
+        launch(alt);
+        return;
+      }
+      result.completeExceptionally(err);
+    }
+
+    private void cancelAll() {
+      List<Call> snapshot;
+      synchronized (this) {
+        snapshot = new ArrayList<>(calls);
+      }
+      for (Call c : snapshot) c.cancel();
+    }
+  }
+
+  // timer dùng chung, chỉ tạo khi có client bật hedging
+  private static final class HedgeTimer {
+    static final ScheduledExecutorService INSTANCE = Executors.newSingleThreadScheduledExecutor(r -> {
+      Thread t = new Thread(r, "tei-hedge-timer");
+      t.setDaemon(true);
+      return t;
+    });
+  }
+
+  private void acquire() throws InterruptedIOException {
+    try {
+      inFlight.acquire();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting for a TEI slot");
+    }
+  }
+
+  private RequestBody buildBody(List<String> inputs) throws IOException {
+    Map<String, Object> payload = base64
+        ? Map.of("input", inputs, "encoding_format", "base64")
+        : Map.of("input", inputs);
+    return RequestBody.create(
+        mapper.writeValueAsBytes(payload),
+        MediaType.parse("application/json"));
+  }
+
+  private float[][] read(Response resp, int expected) throws IOException {
+    if (!resp.isSuccessful()) throw httpError(resp);
+
+    ResponseBody rb = resp.body();
+    if (rb == null) throw new IOException("Empty response body from TEI.");
+
+    // ĐỌC MỘT LẦN bằng stream -> decode thẳng vào float[]
+    try (InputStream is = rb.byteStream()) {
+      return decoder.decode(is, expected);
     }
   }
 
   // ---- helpers ----
+  private static IOException httpError(Response resp) {
+    // đọc nội dung lỗi (nếu có) 1 LẦN và đưa vào thông báo
+    String errPayload = safeBodyString(resp.body());
+    return new IOException("TEI HTTP " + resp.code() + " - " + resp.message() + " @ " + resp.request().url()
+        + (errPayload == null ? "" : " | body: " + truncate(errPayload, 500)));
+  }
+
+  private static String prefix(String text, boolean isQuery) {
+    return (isQuery ? "query: " : "passage: ") + text;
+  }
+
+  private static List<String> prefixAll(List<String> texts, boolean isQuery) {
+    List<String> out = new ArrayList<>(texts.size());
+    for (String t : texts) out.add(prefix(t, isQuery));
+    return out;
+  }
+
+  /**
+   * Ước lượng thô số token WordPiece (~4 ký tự/token), đủ để chia batch mà không cần tokenizer.
+   */
+  static int estimateTokens(String s) {
+    return s.length() / 4 + 2; // + [CLS], [SEP]
+  }
+
   private static String safeBodyString(ResponseBody b) {
     if (b == null) return null;
     try {
@@ -80,13 +531,4 @@ public class EmbeddingClient {
   private static String truncate(String s, int max) {
     return (s == null || s.length() <= max) ? s : s.substring(0, max) + "...";
   }
-
-  private static float[] toFloatArray(JsonNode arr) {
-    int n = arr.size();
-    float[] out = new float[n];
-    for (int i = 0; i < n; i++) out[i] = (float) arr.get(i).asDouble();
-    return out;
-  }
 }
-
-
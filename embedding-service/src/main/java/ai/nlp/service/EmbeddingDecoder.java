@@ -0,0 +1,138 @@
+package ai.nlp.service;
+
+import com.fasterxml.jackson.core.Base64Variants;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * Đọc response embedding của TEI theo kiểu streaming (JsonParser), không dựng cây JsonNode.
+ * <p>
+ * Hỗ trợ các dạng:
+ * - {"embeddings": [[...], ...]}
+ * - OpenAI-style {"data": [{"index": 0, "embedding": [...]}, ...]}
+ * - TEI /embed trả mảng trần [[...], ...]
+ * <p>
+ * Với {@code encoding_format: "base64"}, "embedding" là chuỗi base64 của float32 little-endian;
+ * bytes được giải mã trực tiếp từ token rồi đọc qua view FloatBuffer, không qua số thập phân.
+ * <p>
+ * Mỗi vector được ghi thẳng vào một float[] cấp phát sẵn theo số chiều đã gặp ở lần trước,
+ * nên không còn một DoubleNode cho mỗi chiều. Thread-safe: trạng thái duy nhất là số chiều đã học.
+ */
+final class EmbeddingDecoder {
+  private final JsonFactory factory;
+  private volatile int dim;
+
+  EmbeddingDecoder(JsonFactory factory) {
+    this.factory = factory;
+  }
+
+  /**
+   * Giải mã đúng {@code expected} vector, trả về theo thứ tự input.
+   */
+  float[][] decode(InputStream is, int expected) throws IOException {
+    float[][] out = new float[expected][];
+    try (JsonParser p = factory.createParser(is)) {
+      JsonToken t = p.nextToken();
+      if (t == JsonToken.START_ARRAY) {
+        readVectorList(p, out);
+      } else if (t == JsonToken.START_OBJECT) {
+        while (p.nextToken() == JsonToken.FIELD_NAME) {
+          String field = p.currentName();
+          JsonToken v = p.nextToken();
+          if ("embeddings".equals(field) && v == JsonToken.START_ARRAY) {
+            readVectorList(p, out);
+          } else if ("data".equals(field) && v == JsonToken.START_ARRAY) {
+            readDataList(p, out);
+          } else {
+            p.skipChildren();
+          }
+        }
+      } else {
+        throw unexpected(p, "expected object or array");
+      }
+    }
+    for (float[] v : out) {
+      if (v == null) throw new IOException("Unexpected TEI response format: expected " + expected + " embeddings");
+    }
+    return out;
+  }
+
+  // [[...], [...]]
+  private void readVectorList(JsonParser p, float[][] out) throws IOException {
+    int i = 0;
+    while (p.nextToken() == JsonToken.START_ARRAY) {
+      if (i >= out.length) throw unexpected(p, "more embeddings than inputs");
+      out[i++] = readVector(p);
+    }
+    if (p.currentToken() != JsonToken.END_ARRAY) throw unexpected(p, "expected embedding array");
+  }
+
+  // [{"index": 0, "embedding": [...]}, ...] — "index" có thể đứng trước hoặc sau "embedding"
+  private void readDataList(JsonParser p, float[][] out) throws IOException {
+    int pos = 0;
+    while (p.nextToken() == JsonToken.START_OBJECT) {
+      int idx = pos++;
+      float[] vec = null;
+      while (p.nextToken() == JsonToken.FIELD_NAME) {
+        String field = p.currentName();
+        JsonToken v = p.nextToken();
+        if ("embedding".equals(field) && v == JsonToken.START_ARRAY) {
+          vec = readVector(p);
+        } else if ("embedding".equals(field) && v == JsonToken.VALUE_STRING) {
+          vec = readBase64Vector(p);
+        } else if ("index".equals(field) && v == JsonToken.VALUE_NUMBER_INT) {
+          idx = p.getIntValue();
+        } else {
+          p.skipChildren();
+        }
+      }
+      if (vec == null) throw unexpected(p, "data item without embedding");
+      if (idx < 0 || idx >= out.length) throw unexpected(p, "embedding index " + idx + " out of range");
+      out[idx] = vec;
+    }
+    if (p.currentToken() != JsonToken.END_ARRAY) throw unexpected(p, "expected data array");
+  }
+
+  /**
+   * Parser đang đứng ở START_ARRAY của một vector.
+   */
+  private float[] readVector(JsonParser p) throws IOException {
+    int d = dim;
+    float[] buf = new float[d > 0 ? d : 1024];
+    int n = 0;
+    JsonToken t;
+    while ((t = p.nextToken()) != JsonToken.END_ARRAY) {
+      if (t != JsonToken.VALUE_NUMBER_FLOAT && t != JsonToken.VALUE_NUMBER_INT) {
+        throw unexpected(p, "non-numeric embedding value");
+      }
+      if (n == buf.length) buf = Arrays.copyOf(buf, n * 2);
+      buf[n++] = p.getFloatValue();
+    }
+    if (n != buf.length) buf = Arrays.copyOf(buf, n);
+    dim = n;
+    return buf;
+  }
+
+  /**
+   * Parser đang đứng ở VALUE_STRING chứa base64 của float32 little-endian.
+   */
+  private float[] readBase64Vector(JsonParser p) throws IOException {
+    byte[] bytes = p.getBinaryValue(Base64Variants.MIME_NO_LINEFEEDS);
+    if ((bytes.length & 3) != 0) throw unexpected(p, "base64 embedding length " + bytes.length + " not a multiple of 4");
+    float[] vec = new float[bytes.length >>> 2];
+    ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer().get(vec);
+    dim = vec.length;
+    return vec;
+  }
+
+  private static IOException unexpected(JsonParser p, String what) {
+    return new IOException("Unexpected TEI response format: " + what + " at " + p.currentLocation());
+  }
+}
@@ -0,0 +1,129 @@
+package ai.nlp.service;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Giảm số chiều embedding trước khi lưu/truy vấn. Áp dụng giống hệt cho passage và query,
+ * kết quả luôn được chuẩn hoá L2 để cosine/dot vẫn đúng nghĩa.
+ * <p>
+ * Cấu hình bằng chuỗi (env {@code EMBED_PROJECTION}):
+ * - {@code truncate:256} — Matryoshka: giữ 256 chiều đầu (chỉ hợp lý với model được train kiểu MRL)
+ * - {@code pca:/path/pca.bin} — ma trận PCA đã fit offline bằng {@link FitProjection}
+ */
+public interface EmbeddingProjection {
+
+  float[] apply(float[] v);
+
+  int outputDim();
+
+  /**
+   * null/rỗng = không giảm chiều.
+   */
+  static EmbeddingProjection parse(String spec) throws IOException {
+    if (spec == null || spec.isBlank()) return null;
+    int colon = spec.indexOf(':');
+    String kind = colon < 0 ? spec.trim() : spec.substring(0, colon).trim();
+    String arg = colon < 0 ? "" : spec.substring(colon + 1).trim();
+    return switch (kind.toLowerCase()) {
+      case "truncate" -> new Truncate(Integer.parseInt(arg));
+      case "pca" -> Pca.load(Path.of(arg));
+      default -> throw new IllegalArgumentException("Unknown projection: " + spec);
+    };
+  }
+
+  static float[] normalize(float[] v) {
+    double s = 0;
+    for (float x : v) s += (double) x * x;
+    if (s == 0) return v;
+    float inv = (float) (1.0 / Math.sqrt(s));
+    for (int i = 0; i < v.length; i++) v[i] *= inv;
+    return v;
+  }
+
+  record Truncate(int dim) implements EmbeddingProjection {
+    public Truncate {
+      if (dim <= 0) throw new IllegalArgumentException("truncate dim must be > 0");
+    }
+
+    @Override
+    public float[] apply(float[] v) {
+      if (v.length < dim) throw new IllegalArgumentException("Embedding dim " + v.length + " < truncate " + dim);
+      float[] out = new float[dim];
+      System.arraycopy(v, 0, out, 0, dim);
+      return normalize(out);
+    }
+
+    @Override
+    public int outputDim() {
+      return dim;
+    }
+  }
+
+  /**
+   * y = W (x - mean), W gồm {@code outDim} thành phần chính (mỗi hàng độ dài {@code inDim}).
+   * File: [magic int][inDim int][outDim int][mean float × inDim][W float × outDim × inDim] (big-endian).
+   */
+  final class Pca implements EmbeddingProjection {
+    private static final int MAGIC = 0x50434131; // "PCA1"
+
+    private final float[] mean;
+    private final float[][] components;
+
+    public Pca(float[] mean, float[][] components) {
+      this.mean = mean;
+      this.components = components;
+    }
+
+    @Override
+    public float[] apply(float[] v) {
+      if (v.length != mean.length) {
+        throw new IllegalArgumentException("Embedding dim " + v.length + " != PCA input dim " + mean.length);
+      }
+      float[] out = new float[components.length];
+      for (int k = 0; k < components.length; k++) {
+        float[] w = components[k];
+        double s = 0;
+        for (int i = 0; i < v.length; i++) s += w[i] * (v[i] - mean[i]);
+        out[k] = (float) s;
+      }
+      return normalize(out);
+    }
+
+    @Override
+    public int outputDim() {
+      return components.length;
+    }
+
+    public static Pca load(Path file) throws IOException {
+      try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+        if (in.readInt() != MAGIC) throw new IOException("Not a PCA projection file: " + file);
+        int inDim = in.readInt(), outDim = in.readInt();
+        float[] mean = new float[inDim];
+        for (int i = 0; i < inDim; i++) mean[i] = in.readFloat();
+        float[][] w = new float[outDim][inDim];
+        for (float[] row : w) {
+          for (int i = 0; i < inDim; i++) row[i] = in.readFloat();
+        }
+        return new Pca(mean, w);
+      }
+    }
+
+    public void save(Path file) throws IOException {
+      try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)))) {
+        out.writeInt(MAGIC);
+        out.writeInt(mean.length);
+        out.writeInt(components.length);
+        for (float x : mean) out.writeFloat(x);
+        for (float[] row : components) {
+          for (float x : row) out.writeFloat(x);
+        }
+      }
+    }
+  }
+}
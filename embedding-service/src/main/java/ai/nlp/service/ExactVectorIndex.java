@@ -0,0 +1,313 @@
+package ai.nlp.service;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+import org.neo4j.driver.*;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * {@link VectorIndex} quét toàn bộ (brute force) — recall 100%, dùng làm ground truth cho các backend xấp xỉ.
+ * <p>
+ * Vector (QA + chunk, đã chuẩn hoá) nằm liền nhau trong một vùng off-heap (direct ByteBuffer, row-major,
+ * byte order native), không đè lên heap/GC. Tích vô hướng dùng {@code jdk.incubator.vector} (FMA theo lane
+ * của CPU); phép quét chia thành các đoạn chạy song song, mỗi đoạn giữ một heap top-k giới hạn rồi gộp lại.
+ * Với vài chục nghìn vector 768 chiều, mỗi truy vấn chỉ vài ms — thường nhanh hơn một round trip Bolt.
+ * <p>
+ * Heap mỗi đoạn giữ {@code (k-1)·c + 1} entry, c = số entry tối đa của một QA: đủ để top-k QA sau khi gộp
+ * chunk về QA cha vẫn chính xác. Dữ liệu là ảnh chụp lúc nạp; sau khi ingest cần mở lại index.
+ * <p>
+ * Cần {@code --add-modules jdk.incubator.vector} cả khi biên dịch và khi chạy.
+ * Run (so recall@k của VECTOR_BACKEND với quét chính xác):
+ * java --add-modules jdk.incubator.vector ai.nlp.service.ExactVectorIndex recall [queries] [k]
+ */
+public final class ExactVectorIndex implements VectorIndex {
+  // đoạn quá nhỏ thì chi phí chia việc lớn hơn lợi ích
+  private static final int MIN_ROWS_PER_PART = 4096;
+
+  private final ByteBuffer matrix;
+  private final int n, dim;
+  private final int[] entryDoc;
+  private final List<VectorCorpus.Doc> docs;
+  private final int maxEntriesPerDoc;
+  private final int partitions;
+  private final ExecutorService pool;
+
+  ExactVectorIndex(VectorCorpus corpus, int threads) {
+    n = corpus.size();
+    dim = Math.max(0, corpus.dimension());
+    docs = List.copyOf(corpus.docs);
+    entryDoc = new int[n];
+    matrix = ByteBuffer.allocateDirect(Math.multiplyExact(Math.multiplyExact(n, dim), Float.BYTES))
+        .order(ByteOrder.nativeOrder());
+    int[] perDoc = new int[docs.size()];
+    for (int i = 0; i < n; i++) {
+      entryDoc[i] = corpus.doc(i);
+      perDoc[entryDoc[i]]++;
+      for (float x : corpus.vectors.get(i)) matrix.putFloat(x);
+    }
+    int c = 1;
+    for (int p : perDoc) c = Math.max(c, p);
+    maxEntriesPerDoc = c;
+    partitions = partitions(threads, n);
+    pool = scanPool(partitions, "exact-scan");
+  }
+
+  /**
+   * Nạp corpus của version đang phục vụ; {@code EXACT_THREADS} (mặc định = số core).
+   */
+  static ExactVectorIndex load(Driver driver, String db) {
+    requireVectorModule();
+    int threads = Integer.parseInt(System.getenv().getOrDefault("EXACT_THREADS",
+        String.valueOf(Runtime.getRuntime().availableProcessors())));
+    try (Session s = driver.session(SessionConfig.forDatabase(db))) {
+      ExactVectorIndex idx = new ExactVectorIndex(VectorCorpus.load(s), threads);
+      System.out.printf("🧮 Exact scan: %d vector, dim=%d, %d luồng, SIMD %d lane, %.1f MB off-heap%n",
+          idx.n, idx.dim, idx.partitions, Simd.SPECIES.length(), idx.matrix.capacity() / 1e6);
+      return idx;
+    }
+  }
+
+  /**
+   * Vector API là module incubator: báo lỗi rõ thay vì NoClassDefFoundError giữa chừng. Chỉ có tác dụng vì lớp
+   * này không chạm tới {@code jdk.incubator.vector} khi khởi tạo — mọi tham chiếu nằm trong {@link Simd}.
+   */
+  static void requireVectorModule() {
+    if (ModuleLayer.boot().findModule("jdk.incubator.vector").isEmpty())
+      throw new IllegalStateException("Cần chạy JVM với --add-modules jdk.incubator.vector");
+  }
+
+  @Override
+  public List<Hit> topK(float[] query, int k) {
+    if (n == 0 || k <= 0) return List.of();
+    float[] q = VectorCorpus.normalize(query);
+    if (q.length != dim) throw new IllegalArgumentException("Query dim " + q.length + " != " + dim);
+    int keep = keepRows(k, maxEntriesPerDoc, n);
+    HnswGraph.Heap heap = topRows(pool, partitions, n, keep, row -> Simd.dot(q, matrix, row * dim * Float.BYTES, dim));
+    return collapse(heap, entryDoc, docs, k);
+  }
+
+  int size() {
+    return n;
+  }
+
+  @Override
+  public void close() {
+    if (pool != null) pool.shutdownNow();
+  }
+
+  // ---- quét song song (dùng chung với QuantizedVectorIndex) ----
+
+  /**
+   * Điểm của một dòng trong ma trận.
+   */
+  interface RowScorer {
+    float score(int row);
+  }
+
+  /**
+   * Số đoạn quét: tối đa {@code threads}, mỗi đoạn ít nhất {@value #MIN_ROWS_PER_PART} dòng.
+   */
+  static int partitions(int threads, int n) {
+    return Math.max(1, Math.min(threads, n / MIN_ROWS_PER_PART));
+  }
+
+  /**
+   * Pool cho đoạn 1..partitions-1; đoạn 0 chạy trên luồng gọi. null nếu chỉ có một đoạn.
+   */
+  static ExecutorService scanPool(int partitions, String name) {
+    if (partitions == 1) return null;
+    AtomicInteger seq = new AtomicInteger();
+    return Executors.newFixedThreadPool(partitions - 1, r -> {
+      Thread t = new Thread(r, name + "-" + seq.getAndIncrement());
+      t.setDaemon(true);
+      return t;
+    });
+  }
+
+  /**
+   * Số dòng cần giữ để top-k QA sau khi gộp vẫn đúng, khi mỗi QA có tối đa {@code perDoc} dòng.
+   */
+  static int keepRows(int k, int perDoc, int n) {
+    return (int) Math.min(n, (long) (k - 1) * perDoc + 1);
+  }
+
+  /**
+   * Quét [0, n) chia thành {@code partitions} đoạn song song; min-heap tối đa {@code keep} dòng điểm cao nhất.
+   */
+  static HnswGraph.Heap topRows(ExecutorService pool, int partitions, int n, int keep, RowScorer scorer) {
+    HnswGraph.Heap[] heaps = new HnswGraph.Heap[partitions];
+    List<Future<?>> futures = new ArrayList<>(partitions - 1);
+    for (int p = 1; p < partitions; p++) {
+      int part = p, from = from(n, p, partitions), to = from(n, p + 1, partitions);
+      futures.add(pool.submit(() -> heaps[part] = scan(scorer, from, to, keep)));
+    }
+    heaps[0] = scan(scorer, 0, from(n, 1, partitions), keep);
+    for (Future<?> f : futures) {
+      try {
+        f.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IllegalStateException(e);
+      } catch (ExecutionException e) {
+        throw new IllegalStateException(e.getCause());
+      }
+    }
+
+    HnswGraph.Heap all = heaps[0];
+    for (int p = 1; p < partitions; p++) {
+      HnswGraph.Heap h = heaps[p];
+      while (h.size() > 0) {
+        float s = h.peekScore();
+        offer(all, keep, s, h.pop());
+      }
+    }
+    return all;
+  }
+
+  static void offer(HnswGraph.Heap heap, int keep, float s, int row) {
+    if (heap.size() < keep) heap.push(s, row);
+    else if (s > heap.peekScore()) {
+      heap.pop();
+      heap.push(s, row);
+    }
+  }
+
+  /**
+   * Rút heap (điểm = cosine) thành top-k Hit, gộp các dòng cùng QA (giữ dòng điểm cao nhất).
+   */
+  static List<Hit> collapse(HnswGraph.Heap heap, int[] entryDoc, List<VectorCorpus.Doc> docs, int k) {
+    int cnt = heap.size();
+    int[] rows = new int[cnt];
+    float[] sims = new float[cnt];
+    for (int i = cnt - 1; i >= 0; i--) {
+      sims[i] = heap.peekScore();
+      rows[i] = heap.pop();
+    }
+    List<Hit> out = new ArrayList<>(k);
+    Set<Integer> seen = new HashSet<>();
+    for (int i = 0; i < cnt && out.size() < k; i++) {
+      int d = entryDoc[rows[i]];
+      if (seen.add(d)) {
+        VectorCorpus.Doc doc = docs.get(d);
+        out.add(new Hit(doc.id(), doc.question(), doc.answer(), VectorIndex.score(sims[i])));
+      }
+    }
+    return out;
+  }
+
+  private static int from(int n, int part, int partitions) {
+    return (int) ((long) n * part / partitions);
+  }
+
+  private static HnswGraph.Heap scan(RowScorer scorer, int from, int to, int keep) {
+    HnswGraph.Heap heap = new HnswGraph.Heap(false, keep + 1);
+    for (int row = from; row < to; row++) offer(heap, keep, scorer.score(row), row);
+    return heap;
+  }
+
+  /**
+   * Nhân SIMD. Lớp lồng chỉ được nạp khi quét lần đầu (sau {@link #requireVectorModule()}), nên thiếu module
+   * không làm hỏng việc khởi tạo {@link ExactVectorIndex}.
+   */
+  private static final class Simd {
+    static final VectorSpecies<Float> SPECIES = FloatVector.SPECIES_PREFERRED;
+
+    /**
+     * Tích vô hướng của {@code q} với dòng bắt đầu ở byte {@code base} của {@code matrix}.
+     */
+    static float dot(float[] q, ByteBuffer matrix, int base, int dim) {
+      int bound = SPECIES.loopBound(dim);
+      FloatVector acc = FloatVector.zero(SPECIES);
+      int i = 0;
+      for (; i < bound; i += SPECIES.length()) {
+        FloatVector a = FloatVector.fromArray(SPECIES, q, i);
+        FloatVector b = FloatVector.fromByteBuffer(SPECIES, matrix, base + i * Float.BYTES, ByteOrder.nativeOrder());
+        acc = a.fma(b, acc);
+      }
+      float s = acc.reduceLanes(VectorOperators.ADD);
+      for (; i < dim; i++) s += q[i] * matrix.getFloat(base + i * Float.BYTES);
+      return s;
+    }
+  }
+
+  // ---- ground truth ----
+
+  /**
+   * Truy vấn thử: trung điểm của hai vector ngẫu nhiên trong corpus — nằm trong phân phối dữ liệu nhưng không
+   * trùng entry nào (dùng thẳng vector của corpus thì backend nào cũng tìm ra chính nó).
+   */
+  static List<float[]> sampleQueries(VectorCorpus corpus, int count, long seed) {
+    Random rnd = new Random(seed);
+    List<float[]> out = new ArrayList<>(count);
+    for (int i = 0; i < count && corpus.size() > 0; i++) {
+      float[] a = corpus.vectors.get(rnd.nextInt(corpus.size()));
+      float[] b = corpus.vectors.get(rnd.nextInt(corpus.size()));
+      float[] q = new float[a.length];
+      for (int j = 0; j < q.length; j++) q[j] = a[j] + b[j];
+      out.add(VectorCorpus.normalize(q));
+    }
+    return out;
+  }
+
+  /**
+   * recall@k của {@code candidate} so với quét chính xác (tỉ lệ QA id của kết quả đúng được tìm thấy), kèm độ
+   * trễ của cả hai.
+   */
+  static String recall(VectorIndex candidate, VectorIndex exact, List<float[]> queries, int k) {
+    LatencyHistogram tc = new LatencyHistogram(), te = new LatencyHistogram();
+    long found = 0, total = 0;
+    for (float[] q : queries) {
+      long t0 = System.nanoTime();
+      List<Hit> truth = exact.topK(q, k);
+      long t1 = System.nanoTime();
+      List<Hit> got = candidate.topK(q, k);
+      tc.record(System.nanoTime() - t1);
+      te.record(t1 - t0);
+      Set<String> ids = new HashSet<>();
+      for (Hit h : got) ids.add(h.id());
+      for (Hit h : truth) if (ids.contains(h.id())) found++;
+      total += truth.size();
+    }
+    return String.format("recall@%d=%.4f (%d truy vấn) | %s: %s | exact: %s", k,
+        total == 0 ? 1.0 : (double) found / total, queries.size(),
+        candidate.getClass().getSimpleName(), tc.summary(), te.summary());
+  }
+
+  public static void main(String[] args) throws Exception {
+    String cmd = args.length > 0 ? args[0] : "recall";
+    if (!cmd.equals("recall")) throw new IllegalArgumentException("Usage: recall [queries] [k]");
+    int queries = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+    int k = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+    requireVectorModule();
+    String uri = System.getenv().getOrDefault("NEO4J_URI", "bolt://localhost:7687");
+    String user = System.getenv().getOrDefault("NEO4J_USER", "neo4j");
+    String pass = System.getenv().getOrDefault("NEO4J_PASS", "12345678");
+    String db = System.getenv().getOrDefault("NEO4J_DB", "rag");
+    int threads = Integer.parseInt(System.getenv().getOrDefault("EXACT_THREADS",
+        String.valueOf(Runtime.getRuntime().availableProcessors())));
+
+    try (Driver driver = GraphDatabase.driver(uri, AuthTokens.basic(user, pass))) {
+      VectorCorpus corpus;
+      try (Session s = driver.session(SessionConfig.forDatabase(db))) {
+        corpus = VectorCorpus.load(s);
+      }
+      try (ExactVectorIndex exact = new ExactVectorIndex(corpus, threads);
+           VectorIndex candidate = VectorIndex.fromEnv(driver, db)) {
+        System.out.println(recall(candidate, exact, sampleQueries(corpus, queries, 42), k));
+      }
+    }
+  }
+}
@@ -0,0 +1,227 @@
+package ai.nlp.service;
+
+import org.neo4j.driver.*;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+import static org.neo4j.driver.Values.parameters;
+
+/**
+ * Fit ma trận PCA trên chính corpus QA và in báo cáo recall@10 cho các mức giảm chiều.
+ * <p>
+ * - Passage: "question answer" của các :QA (lấy mẫu tối đa --sample), embed bằng TEI ở số chiều gốc
+ * - Query: câu hỏi của --queries dòng ngẫu nhiên, embed với prefix "query: "
+ * - Ground truth: top-10 cosine ở số chiều gốc; recall@10 = tỉ lệ top-10 sau giảm chiều trùng với ground truth
+ * <p>
+ * Run (example):
+ * java ai.nlp.service.FitProjection --dim 256 --out pca256.bin --truncate 128,256,384 --sample 20000 --queries 500
+ * Sau đó: EMBED_PROJECTION=pca:pca256.bin (hoặc truncate:256) cho cả IngestQA và service.
+ */
+public class FitProjection {
+
+  public static void main(String[] argv) throws Exception {
+    Map<String, String> a = new HashMap<>();
+    for (int i = 0; i < argv.length; i++) {
+      if (argv[i].startsWith("--")) {
+        String key = argv[i].substring(2);
+        String val = (i + 1 < argv.length && !argv[i + 1].startsWith("--")) ? argv[++i] : "1";
+        a.put(key, val);
+      }
+    }
+    int dim = Integer.parseInt(a.getOrDefault("dim", "256"));
+    Path out = Path.of(a.getOrDefault("out", "pca" + dim + ".bin"));
+    int sample = Integer.parseInt(a.getOrDefault("sample", "20000"));
+    int nQueries = Integer.parseInt(a.getOrDefault("queries", "500"));
+    String truncates = a.getOrDefault("truncate", "128,256,384,512");
+
+    String teiUrl = System.getenv().getOrDefault("TEI_URL", "http://localhost:8080/embeddings");
+    String uri = System.getenv().getOrDefault("NEO4J_URI", "bolt://localhost:7687");
+    String user = System.getenv().getOrDefault("NEO4J_USER", "neo4j");
+    String pass = System.getenv().getOrDefault("NEO4J_PASS", "12345678");
+    String db = System.getenv().getOrDefault("NEO4J_DB", "rag");
+
+    List<String> questions = new ArrayList<>(), passages = new ArrayList<>();
+    try (Driver driver = GraphDatabase.driver(uri, AuthTokens.basic(user, pass));
+         Session s = driver.session(SessionConfig.forDatabase(db))) {
+      var rs = s.run("MATCH (n:QA) RETURN n.question AS q, n.answer AS a LIMIT $n", parameters("n", sample));
+      while (rs.hasNext()) {
+        var r = rs.next();
+        questions.add(r.get("q").asString());
+        passages.add(r.get("q").asString() + " " + r.get("a").asString());
+      }
+    }
+    if (passages.size() < dim) throw new IllegalStateException("Need at least " + dim + " QA rows, got " + passages.size());
+
+    // embed ở số chiều gốc: bỏ qua EMBED_PROJECTION đang cấu hình
+    float[][] docs, queries;
+    try (EmbeddingClient embedder = new EmbeddingClient(teiUrl, EmbeddingClient.Options.fromEnv().withProjection(null))) {
+      docs = embedder.embedBatchE5(passages, false);
+      Random rnd = new Random(42);
+      List<String> qs = new ArrayList<>();
+      for (int i = 0; i < Math.min(nQueries, questions.size()); i++) qs.add(questions.get(rnd.nextInt(questions.size())));
+      queries = embedder.embedBatchE5(qs, true);
+    }
+    for (float[] v : docs) EmbeddingProjection.normalize(v);
+    for (float[] v : queries) EmbeddingProjection.normalize(v);
+    System.out.printf("Corpus: %d passages, %d queries, dim=%d%n", docs.length, queries.length, docs[0].length);
+
+    int[][] truth = topK(docs, queries, 10);
+
+    EmbeddingProjection.Pca pca = fitPca(docs, dim);
+    pca.save(out);
+    System.out.println("📁 PCA saved to: " + out);
+
+    System.out.println("\nprojection        dim  bytes/vec  recall@10");
+    System.out.printf("%-16s %4d %10d %10.4f%n", "none", docs[0].length, 4 * docs[0].length, 1.0);
+    for (String t : truncates.split(",")) {
+      int d = Integer.parseInt(t.trim());
+      if (d >= docs[0].length) continue;
+      report("truncate:" + d, new EmbeddingProjection.Truncate(d), docs, queries, truth);
+    }
+    report("pca:" + dim, pca, docs, queries, truth);
+  }
+
+  static void report(String name, EmbeddingProjection p, float[][] docs, float[][] queries, int[][] truth) {
+    float[][] pd = new float[docs.length][];
+    for (int i = 0; i < docs.length; i++) pd[i] = p.apply(docs[i]);
+    float[][] pq = new float[queries.length][];
+    for (int i = 0; i < queries.length; i++) pq[i] = p.apply(queries[i]);
+    System.out.printf("%-16s %4d %10d %10.4f%n", name, p.outputDim(), 4 * p.outputDim(),
+        recall(truth, topK(pd, pq, truth[0].length)));
+  }
+
+  static double recall(int[][] truth, int[][] got) {
+    long hit = 0, total = 0;
+    for (int q = 0; q < truth.length; q++) {
+      for (int t : truth[q]) {
+        for (int g : got[q]) {
+          if (g == t) {
+            hit++;
+            break;
+          }
+        }
+      }
+      total += truth[q].length;
+    }
+    return total == 0 ? 0 : (double) hit / total;
+  }
+
+  /**
+   * Top-k chính xác theo dot product (vector đã chuẩn hoá).
+   */
+  static int[][] topK(float[][] docs, float[][] queries, int k) {
+    int[][] out = new int[queries.length][];
+    for (int q = 0; q < queries.length; q++) {
+      PriorityQueue<double[]> heap = new PriorityQueue<>((x, y) -> Double.compare(x[0], y[0]));
+      for (int d = 0; d < docs.length; d++) {
+        double s = dot(docs[d], queries[q]);
+        if (heap.size() < k) heap.add(new double[]{s, d});
+        else if (s > heap.peek()[0]) {
+          heap.poll();
+          heap.add(new double[]{s, d});
+        }
+      }
+      int[] ids = new int[heap.size()];
+      for (int i = ids.length - 1; i >= 0; i--) ids[i] = (int) heap.poll()[1];
+      out[q] = ids;
+    }
+    return out;
+  }
+
+  /**
+   * PCA: ma trận hiệp phương sai rồi lặp trực giao (block power iteration + Gram-Schmidt) lấy {@code k}
+   * vector riêng lớn nhất. Đủ nhanh cho d ~ 1024 mà không cần thư viện đại số tuyến tính.
+   */
+  static EmbeddingProjection.Pca fitPca(float[][] x, int k) {
+    int n = x.length, d = x[0].length;
+    double[] mean = new double[d];
+    for (float[] v : x) for (int i = 0; i < d; i++) mean[i] += v[i];
+    for (int i = 0; i < d; i++) mean[i] /= n;
+
+    double[][] cov = new double[d][d];
+    double[] c = new double[d];
+    for (float[] v : x) {
+      for (int i = 0; i < d; i++) c[i] = v[i] - mean[i];
+      for (int i = 0; i < d; i++) {
+        double ci = c[i];
+        double[] row = cov[i];
+        for (int j = i; j < d; j++) row[j] += ci * c[j];
+      }
+    }
+    double total = 0;
+    for (int i = 0; i < d; i++) {
+      for (int j = i; j < d; j++) {
+        cov[i][j] /= (n - 1);
+        cov[j][i] = cov[i][j];
+      }
+      total += cov[i][i];
+    }
+
+    Random rnd = new Random(7);
+    double[][] q = new double[k][d];
+    for (double[] row : q) for (int i = 0; i < d; i++) row[i] = rnd.nextGaussian();
+    orthonormalize(q);
+    double[][] z = new double[k][d];
+    for (int iter = 0; iter < 100; iter++) {
+      for (int r = 0; r < k; r++) {
+        double[] qr = q[r], zr = z[r];
+        for (int i = 0; i < d; i++) {
+          double s = 0;
+          double[] row = cov[i];
+          for (int j = 0; j < d; j++) s += row[j] * qr[j];
+          zr[i] = s;
+        }
+      }
+      orthonormalize(z);
+      double change = 0;
+      for (int r = 0; r < k; r++) change = Math.max(change, 1 - Math.abs(dot(z[r], q[r])));
+      double[][] tmp = q;
+      q = z;
+      z = tmp;
+      if (change < 1e-9) break;
+    }
+
+    double explained = 0;
+    float[][] w = new float[k][d];
+    for (int r = 0; r < k; r++) {
+      double[] cq = new double[d];
+      for (int i = 0; i < d; i++) cq[i] = dot(cov[i], q[r]);
+      explained += dot(cq, q[r]);
+      for (int i = 0; i < d; i++) w[r][i] = (float) q[r][i];
+    }
+    System.out.printf("PCA %d -> %d: explained variance %.2f%%%n", d, k, 100 * explained / total);
+
+    float[] m = new float[d];
+    for (int i = 0; i < d; i++) m[i] = (float) mean[i];
+    return new EmbeddingProjection.Pca(m, w);
+  }
+
+  private static void orthonormalize(double[][] v) {
+    for (int r = 0; r < v.length; r++) {
+      for (int p = 0; p < r; p++) {
+        double s = dot(v[r], v[p]);
+        for (int i = 0; i < v[r].length; i++) v[r][i] -= s * v[p][i];
+      }
+      double norm = Math.sqrt(dot(v[r], v[r]));
+      for (int i = 0; i < v[r].length; i++) v[r][i] /= norm;
+    }
+  }
+
+  private static double dot(double[] a, double[] b) {
+    double s = 0;
+    for (int i = 0; i < a.length; i++) s += a[i] * b[i];
+    return s;
+  }
+
+  private static double dot(float[] a, float[] b) {
+    double s = 0;
+    for (int i = 0; i < a.length; i++) s += a[i] * b[i];
+    return s;
+  }
+}
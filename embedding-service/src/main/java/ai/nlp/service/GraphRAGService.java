@@ -9,44 +9,45 @@ import java.io.IOException;
 import java.util.*;
 import java.util.concurrent.TimeUnit;
 
-import static org.neo4j.driver.Values.parameters;
-
 /**
  * GraphRAGService v3
- * - Retrieve top-k QA from Neo4j (vector index)
+ * - Retrieve top-k QA by vector (Neo4j vector index, or a local HNSW file with VECTOR_BACKEND=hnsw)
  * - Extract factual statements with confidence using Ollama
  * - Aggregate votes (confidence-weighted)
  * - Compose final answer using only reliable facts
  * <p>
  * Requirements:
- * - Neo4j running with vector index `qa_embedding_index`
+ * - Neo4j running with vector index `qa_embedding_index` (or the version activated via VectorIndexManager)
  * - Text Embeddings Inference server at http://localhost:8080/embeddings
  * - Ollama running locally (e.g. mistral / llama3 / gemma2)
  */
 public class GraphRAGService {
 
   private final Driver driver;
-  private final EmbeddingClient embedClient;
+  private final Embedder embedClient;
   private final OllamaClient ollamaStrict;
   private final String dbName;
-  private final String vectorIndexName = "qa_embedding_index";
+  private final VectorIndex vectorIndex;
+  static final String QA_INDEX = "qa_embedding_index";
+  static final String CHUNK_INDEX = "qa_chunk_embedding_index";
+
   private final int topKVec = 30;
   private final int voteThreshold = 3;
 
-  public GraphRAGService(Driver driver, EmbeddingClient embedClient,
-                         String dbName, String ollamaUrl, String ollamaModel) {
+  public GraphRAGService(Driver driver, Embedder embedClient,
+                         String dbName, String ollamaUrl, String ollamaModel) throws IOException {
     this.driver = driver;
     this.embedClient = embedClient;
     this.dbName = (dbName == null || dbName.isBlank()) ? "rag" : dbName;
     this.ollamaStrict = new OllamaClient(ollamaUrl, ollamaModel, 0.2, 0.9, false);
+    this.vectorIndex = VectorIndex.fromEnv(driver, this.dbName);
   }
 
   /**
    * Main RAG pipeline: ANN → Extract → Vote → Compose
    */
   public String answerPlain(String userQuery) throws Exception {
-    float[] q = embedClient.embedE5(userQuery, true); // "query:"
-    List<Double> qemb = toDoubleList(q);
+    float[] qemb = embedClient.embedE5(userQuery, true); // "query:"
     List<Cand> cands = vectorTopK(qemb, topKVec);
 
     if (cands.isEmpty()) {
@@ -70,27 +71,15 @@ public class GraphRAGService {
     return cleanup(finalText);
   }
 
-  // ---------------------- Neo4j retrieval ----------------------
+  // ---------------------- Vector retrieval ----------------------
 
-  private List<Cand> vectorTopK(List<Double> qemb, int k) {
+  /**
+   * Top-k QA theo vector, qua backend {@link VectorIndex} (Neo4j hoặc HNSW cục bộ).
+   */
+  private List<Cand> vectorTopK(float[] qemb, int k) {
     List<Cand> out = new ArrayList<>();
-    try (Session s = driver.session(SessionConfig.forDatabase(dbName))) {
-      var rs = s.run("""
-          WITH $qemb AS qemb
-          CALL db.index.vector.queryNodes($index, $k, qemb)
-          YIELD node, score
-          RETURN node.id AS id, node.question AS q, node.answer AS a, score
-          ORDER BY score DESC
-          """, parameters("qemb", qemb, "k", k, "index", vectorIndexName));
-      while (rs.hasNext()) {
-        var r = rs.next();
-        out.add(new Cand(
-            r.get("id").asString(),
-            r.get("q").asString(),
-            r.get("a").asString(),
-            r.get("score").asDouble()
-        ));
-      }
+    for (VectorIndex.Hit h : vectorIndex.topK(qemb, k)) {
+      out.add(new Cand(h.id(), h.question(), h.answer(), h.score()));
     }
     return out;
   }
@@ -166,12 +155,6 @@ public class GraphRAGService {
 
   // ---------------------- Helpers ----------------------
 
-  private static List<Double> toDoubleList(float[] v) {
-    List<Double> L = new ArrayList<>(v.length);
-    for (float x : v) L.add((double) x);
-    return L;
-  }
-
   private static String normalize(String s) {
     return s.trim().toLowerCase().replaceAll("\\s+", " ");
   }
@@ -269,9 +252,12 @@ public class GraphRAGService {
     String ollamaUrl = System.getenv().getOrDefault("OLLAMA_URL", "http://localhost:11434/api/generate");
     String ollamaModel = System.getenv().getOrDefault("OLLAMA_MODEL", "mistral");
 
-    EmbeddingClient embed = new EmbeddingClient(teiUrl);
+    Embedder embed = Embedder.fromEnv(teiUrl);
 
     try (Driver driver = GraphDatabase.driver(uri, AuthTokens.basic(user, pass))) {
+      try (Session s = driver.session(SessionConfig.forDatabase(db))) {
+        SchemaMigrations.migrate(s);
+      }
       GraphRAGService srv = new GraphRAGService(driver, embed, db, ollamaUrl, ollamaModel);
 
       String question = (args.length > 0) ? String.join(" ", args)
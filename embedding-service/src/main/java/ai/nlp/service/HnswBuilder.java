@@ -0,0 +1,282 @@
+package ai.nlp.service;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+
+/**
+ * Dựng đồ thị HNSW trong heap từ một {@link VectorCorpus} rồi ghi ra file cho {@link HnswIndex#open}.
+ * <p>
+ * Chèn tuần tự từng vector: tầng ngẫu nhiên theo phân phối mũ (mL = 1/ln M), tìm {@code efConstruction} ứng
+ * viên mỗi tầng, chọn M láng giềng bằng heuristic đa dạng (bỏ ứng viên gần một láng giềng đã chọn hơn gần nút
+ * mới) và nối hai chiều; danh sách láng giềng quá M (tầng 0: 2M) được chọn lại bằng cùng heuristic.
+ * Seed cố định, nên cùng corpus cho cùng một file.
+ */
+final class HnswBuilder implements HnswGraph {
+  private static final int MAX_LEVEL = 16;
+
+  private final VectorCorpus corpus;
+  private final float[][] vectors;
+  private final int m, m0, efConstruction;
+  private final double levelMult;
+  private final Random rnd;
+  private final int[] levels;
+  // links[node][level] = {count, neighbor...}
+  private final int[][][] links;
+  private final HnswGraph.Visited visited;
+  private int entry = -1, maxLevel = -1;
+
+  HnswBuilder(VectorCorpus corpus, int m, int efConstruction, long seed) {
+    this.corpus = corpus;
+    this.vectors = corpus.vectors.toArray(new float[0][]);
+    this.m = m;
+    this.m0 = 2 * m;
+    this.efConstruction = Math.max(efConstruction, m);
+    this.levelMult = 1.0 / Math.log(m);
+    this.rnd = new Random(seed);
+    this.levels = new int[vectors.length];
+    this.links = new int[vectors.length][][];
+    this.visited = new HnswGraph.Visited(vectors.length);
+  }
+
+  /**
+   * {@code HNSW_M} (mặc định 16), {@code HNSW_EF_CONSTRUCTION} (mặc định 100).
+   */
+  static HnswBuilder fromEnv(VectorCorpus corpus) {
+    int m = Integer.parseInt(System.getenv().getOrDefault("HNSW_M", "16"));
+    int ef = Integer.parseInt(System.getenv().getOrDefault("HNSW_EF_CONSTRUCTION", "100"));
+    return new HnswBuilder(corpus, m, ef, 42);
+  }
+
+  void build() {
+    long t0 = System.nanoTime();
+    for (int i = 0; i < vectors.length; i++) {
+      insert(i);
+      if ((i + 1) % 10_000 == 0) System.out.printf("🔧 HNSW %d/%d%n", i + 1, vectors.length);
+    }
+    System.out.printf("✅ HNSW dựng xong %d vector, %d tầng, %.1fs%n",
+        vectors.length, maxLevel + 1, (System.nanoTime() - t0) / 1e9);
+  }
+
+  private void insert(int q) {
+    int lq = Math.min(MAX_LEVEL, (int) (-Math.log(1.0 - rnd.nextDouble()) * levelMult));
+    levels[q] = lq;
+    links[q] = new int[lq + 1][];
+    for (int l = 0; l <= lq; l++) links[q][l] = new int[(l == 0 ? m0 : m) + 1];
+    if (entry < 0) {
+      entry = q;
+      maxLevel = lq;
+      return;
+    }
+
+    float[] v = vectors[q];
+    float[] epSim = {dot(v, entry)};
+    int ep = entry;
+    for (int l = maxLevel; l > lq; l--) ep = HnswGraph.greedy(this, v, ep, epSim, l);
+
+    for (int l = Math.min(lq, maxLevel); l >= 0; l--) {
+      HnswGraph.Heap res = HnswGraph.searchLayer(this, v, ep, epSim[0], efConstruction, l, visited);
+      int cnt = res.size();
+      int[] nodes = new int[cnt];
+      float[] sims = new float[cnt];
+      for (int i = cnt - 1; i >= 0; i--) {
+        sims[i] = res.peekScore();
+        nodes[i] = res.pop();
+      }
+      int[] own = links[q][l];
+      own[0] = select(nodes, sims, cnt, m, own);
+      for (int i = 1; i <= own[0]; i++) addLink(own[i], l, q);
+      ep = nodes[0];
+      epSim[0] = sims[0];
+    }
+    if (lq > maxLevel) {
+      maxLevel = lq;
+      entry = q;
+    }
+  }
+
+  private void addLink(int node, int level, int q) {
+    int[] a = links[node][level];
+    int cap = a.length - 1;
+    if (a[0] < cap) {
+      a[++a[0]] = q;
+      return;
+    }
+    int cnt = cap + 1;
+    int[] nodes = new int[cnt];
+    float[] sims = new float[cnt];
+    float[] v = vectors[node];
+    for (int i = 0; i < cap; i++) {
+      nodes[i] = a[i + 1];
+      sims[i] = dot(v, nodes[i]);
+    }
+    nodes[cap] = q;
+    sims[cap] = dot(v, q);
+    sortDesc(nodes, sims, cnt);
+    a[0] = select(nodes, sims, cnt, cap, a);
+  }
+
+  /**
+   * Heuristic chọn láng giềng (Malkov, thuật toán 4, có keepPrunedConnections): ứng viên đã sắp giảm dần theo
+   * độ tương tự với nút gốc; ghi vào {@code out[1..]} và trả về số láng giềng.
+   */
+  private int select(int[] nodes, float[] sims, int cnt, int max, int[] out) {
+    int[] chosen = new int[max];
+    int[] pruned = new int[cnt];
+    int n = 0, p = 0;
+    for (int i = 0; i < cnt && n < max; i++) {
+      int c = nodes[i];
+      boolean keep = true;
+      for (int j = 0; j < n; j++) {
+        if (dot(vectors[c], chosen[j]) > sims[i]) {
+          keep = false;
+          break;
+        }
+      }
+      if (keep) chosen[n++] = c;
+      else pruned[p++] = c;
+    }
+    for (int i = 0; i < p && n < max; i++) chosen[n++] = pruned[i];
+    System.arraycopy(chosen, 0, out, 1, n);
+    return n;
+  }
+
+  private static void sortDesc(int[] nodes, float[] sims, int cnt) {
+    for (int i = 1; i < cnt; i++) {
+      float s = sims[i];
+      int nd = nodes[i];
+      int j = i - 1;
+      while (j >= 0 && sims[j] < s) {
+        sims[j + 1] = sims[j];
+        nodes[j + 1] = nodes[j];
+        j--;
+      }
+      sims[j + 1] = s;
+      nodes[j + 1] = nd;
+    }
+  }
+
+  // ---- Graph (heap) ----
+
+  @Override
+  public float dot(float[] q, int node) {
+    float[] v = vectors[node];
+    float s = 0;
+    for (int i = 0; i < v.length; i++) s += q[i] * v[i];
+    return s;
+  }
+
+  @Override
+  public int degree(int node, int level) {
+    return links[node][level][0];
+  }
+
+  @Override
+  public int neighbor(int node, int level, int i) {
+    return links[node][level][1 + i];
+  }
+
+  // ---- file ----
+
+  /**
+   * Ghi file theo layout trong {@link HnswIndex}: ghi ra file tạm rồi rename, nên process đang map file cũ
+   * không bị ảnh hưởng.
+   */
+  void write(Path file) throws IOException {
+    int n = vectors.length;
+    int dim = Math.max(0, corpus.dimension());
+    int docs = corpus.docs.size();
+
+    int[] upperOffset = new int[n];
+    int upperLen = 0;
+    for (int i = 0; i < n; i++) {
+      upperOffset[i] = levels[i] > 0 ? upperLen : -1;
+      upperLen += levels[i] * (m + 1);
+    }
+    byte[][] docBytes = new byte[docs * 3][];
+    int[] docOffset = new int[docs + 1];
+    long text = 0;
+    for (int d = 0; d < docs; d++) {
+      VectorCorpus.Doc doc = corpus.docs.get(d);
+      docBytes[3 * d] = doc.id().getBytes(StandardCharsets.UTF_8);
+      docBytes[3 * d + 1] = doc.question().getBytes(StandardCharsets.UTF_8);
+      docBytes[3 * d + 2] = doc.answer().getBytes(StandardCharsets.UTF_8);
+      docOffset[d] = (int) text;
+      for (int i = 0; i < 3; i++) text += 4 + docBytes[3 * d + i].length;
+    }
+    docOffset[docs] = (int) text;
+    long total = HnswIndex.HEADER_BYTES + 4L * n * dim + 12L * n + 4L * n * (m0 + 1) + 4 + 4L * upperLen
+        + 4L * (docs + 1) + text;
+    if (total > Integer.MAX_VALUE) throw new IllegalStateException("File HNSW quá 2 GB (" + total + " byte)");
+
+    Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+    try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+        StandardOpenOption.TRUNCATE_EXISTING)) {
+      Out out = new Out(ch);
+      int[] header = {HnswIndex.MAGIC, HnswIndex.FORMAT, dim, n, docs, m, m0, maxLevel, entry};
+      for (int h : header) out.putInt(h);
+      for (int i = header.length; i < HnswIndex.HEADER_BYTES / 4; i++) out.putInt(0);
+      for (float[] v : vectors) for (float x : v) out.putFloat(x);
+      for (int i = 0; i < n; i++) out.putInt(corpus.doc(i));
+      for (int i = 0; i < n; i++) out.putInt(levels[i]);
+      for (int i = 0; i < n; i++) out.putInt(upperOffset[i]);
+      for (int i = 0; i < n; i++) for (int x : links[i][0]) out.putInt(x);
+      out.putInt(upperLen);
+      for (int i = 0; i < n; i++) for (int l = 1; l <= levels[i]; l++) for (int x : links[i][l]) out.putInt(x);
+      for (int off : docOffset) out.putInt(off);
+      for (byte[] b : docBytes) {
+        out.putInt(b.length);
+        out.put(b);
+      }
+      out.flush();
+      ch.force(true);
+    }
+    Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    System.out.printf("💾 HNSW -> %s (%.1f MB)%n", file, total / 1e6);
+  }
+
+  /**
+   * Ghi little-endian qua buffer 1 MB.
+   */
+  private static final class Out {
+    private final FileChannel ch;
+    private final ByteBuffer buf = ByteBuffer.allocateDirect(1 << 20).order(ByteOrder.LITTLE_ENDIAN);
+
+    Out(FileChannel ch) {
+      this.ch = ch;
+    }
+
+    void putInt(int x) throws IOException {
+      if (buf.remaining() < 4) flush();
+      buf.putInt(x);
+    }
+
+    void putFloat(float x) throws IOException {
+      if (buf.remaining() < 4) flush();
+      buf.putFloat(x);
+    }
+
+    void put(byte[] b) throws IOException {
+      int off = 0;
+      while (off < b.length) {
+        if (!buf.hasRemaining()) flush();
+        int len = Math.min(buf.remaining(), b.length - off);
+        buf.put(b, off, len);
+        off += len;
+      }
+    }
+
+    void flush() throws IOException {
+      buf.flip();
+      while (buf.hasRemaining()) ch.write(buf);
+      buf.clear();
+    }
+  }
+}
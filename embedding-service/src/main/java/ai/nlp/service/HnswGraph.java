@@ -0,0 +1,161 @@
+package ai.nlp.service;
+
+import java.util.Arrays;
+
+/**
+ * Đồ thị HNSW nhìn từ phía tìm kiếm, dùng chung giữa bản mmap ({@link HnswIndex}) và bản đang dựng trong heap
+ * ({@link HnswBuilder}). Tương tự = tích vô hướng trên vector đã chuẩn hoá.
+ */
+interface HnswGraph {
+  float dot(float[] q, int node);
+
+  int degree(int node, int level);
+
+  int neighbor(int node, int level, int i);
+
+  /**
+   * Tầng trên: leo tham lam tới nút gần {@code q} nhất; {@code sim[0]} vào/ra là độ tương tự của nút hiện tại.
+   */
+  static int greedy(HnswGraph g, float[] q, int ep, float[] sim, int level) {
+    boolean changed = true;
+    while (changed) {
+      changed = false;
+      int deg = g.degree(ep, level);
+      for (int i = 0; i < deg; i++) {
+        int nb = g.neighbor(ep, level, i);
+        float s = g.dot(q, nb);
+        if (s > sim[0]) {
+          sim[0] = s;
+          ep = nb;
+          changed = true;
+        }
+      }
+    }
+    return ep;
+  }
+
+  /**
+   * Beam search trên một tầng; trả về min-heap tối đa {@code ef} nút tốt nhất (đỉnh heap là nút kém nhất).
+   */
+  static Heap searchLayer(HnswGraph g, float[] q, int ep, float epSim, int ef, int level, Visited visited) {
+    visited.reset();
+    visited.visit(ep);
+    Heap cand = new Heap(true, ef * 2);
+    Heap res = new Heap(false, ef + 1);
+    cand.push(epSim, ep);
+    res.push(epSim, ep);
+    while (cand.size() > 0) {
+      float cs = cand.peekScore();
+      int c = cand.pop();
+      if (res.size() >= ef && cs < res.peekScore()) break;
+      int deg = g.degree(c, level);
+      for (int i = 0; i < deg; i++) {
+        int nb = g.neighbor(c, level, i);
+        if (!visited.visit(nb)) continue;
+        float s = g.dot(q, nb);
+        if (res.size() < ef || s > res.peekScore()) {
+          cand.push(s, nb);
+          res.push(s, nb);
+          if (res.size() > ef) res.pop();
+        }
+      }
+    }
+    return res;
+  }
+
+  /**
+   * Binary heap (score, node); {@code max} = đỉnh là điểm cao nhất.
+   */
+  static final class Heap {
+    private final boolean max;
+    private float[] score;
+    private int[] node;
+    private int size;
+
+    Heap(boolean max, int capacity) {
+      this.max = max;
+      this.score = new float[Math.max(4, capacity)];
+      this.node = new int[score.length];
+    }
+
+    int size() {
+      return size;
+    }
+
+    float peekScore() {
+      return score[0];
+    }
+
+    void push(float s, int n) {
+      if (size == score.length) {
+        score = Arrays.copyOf(score, size * 2);
+        node = Arrays.copyOf(node, size * 2);
+      }
+      int i = size++;
+      while (i > 0) {
+        int p = (i - 1) >>> 1;
+        if (!before(s, score[p])) break;
+        score[i] = score[p];
+        node[i] = node[p];
+        i = p;
+      }
+      score[i] = s;
+      node[i] = n;
+    }
+
+    /**
+     * Bỏ đỉnh heap, trả về node của nó.
+     */
+    int pop() {
+      int top = node[0];
+      size--;
+      float s = score[size];
+      int n = node[size];
+      int i = 0;
+      while (true) {
+        int c = 2 * i + 1;
+        if (c >= size) break;
+        if (c + 1 < size && before(score[c + 1], score[c])) c++;
+        if (!before(score[c], s)) break;
+        score[i] = score[c];
+        node[i] = node[c];
+        i = c;
+      }
+      score[i] = s;
+      node[i] = n;
+      return top;
+    }
+
+    private boolean before(float a, float b) {
+      return max ? a > b : a < b;
+    }
+  }
+
+  /**
+   * Tập nút đã thăm, xoá O(1) bằng cách tăng epoch.
+   */
+  static final class Visited {
+    private final int[] mark;
+    private int epoch;
+
+    Visited(int n) {
+      mark = new int[n];
+    }
+
+    void reset() {
+      if (++epoch == 0) {
+        Arrays.fill(mark, 0);
+        epoch = 1;
+      }
+    }
+
+    /**
+     * true nếu lần đầu thăm {@code node} trong epoch này.
+     */
+    boolean visit(int node) {
+      if (mark[node] == epoch) return false;
+      mark[node] = epoch;
+      return true;
+    }
+  }
+}
@@ -0,0 +1,194 @@
+package ai.nlp.service;
+
+import org.neo4j.driver.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * {@link VectorIndex} HNSW (Malkov &amp; Yashunin) chạy trong process, đọc từ file dựng sẵn bằng memory mapping:
+ * khởi động không phải nạp/giải mã gì, các trang của file được OS nạp khi truy vấn chạm tới và dùng chung giữa
+ * các process trên cùng máy. Mỗi truy vấn không qua Bolt/Cypher.
+ * <p>
+ * File do {@link HnswBuilder} dựng từ {@link VectorCorpus} (vector QA + chunk của version đang phục vụ, đã chuẩn
+ * hoá, cosine = tích vô hướng) và chứa luôn id/câu hỏi/câu trả lời, nên kết quả không cần tra lại Neo4j.
+ * Layout (little-endian), xem {@link HnswBuilder#write}:
+ * <pre>
+ *   header (64 byte) | vectors n×dim float | entryDoc n int | level n int | upperOffset n int
+ *   | layer0 n×(M0+1) int | upperLen int, upper int[] | docOffset (docs+1) int | docs: (len, utf8)×3 mỗi QA
+ * </pre>
+ * File là ảnh chụp: sau khi ingest cần dựng lại ({@code HnswIndex build}) và restart/mở lại index.
+ * Một MappedByteBuffer giới hạn 2 GB (khoảng 600k vector 768 chiều).
+ * <p>
+ * Run:
+ * java ai.nlp.service.HnswIndex build [qa.hnsw]
+ */
+public final class HnswIndex implements VectorIndex, HnswGraph {
+  static final int MAGIC = 0x57534E48; // "HNSW"
+  static final int FORMAT = 1;
+  static final int HEADER_BYTES = 64;
+
+  private final int dim, n, docs, m, m0, maxLevel, entry;
+  private final int efSearch;
+  private final ByteBuffer buf;
+  private final FloatBuffer vectors;
+  private final IntBuffer entryDoc, upperOffset, layer0, upper, docOffset;
+  private final int docBase;
+  private final ThreadLocal<HnswGraph.Visited> visited;
+
+  private HnswIndex(ByteBuffer buf, int efSearch) {
+    this.buf = buf;
+    this.efSearch = efSearch;
+    if (buf.getInt(0) != MAGIC || buf.getInt(4) != FORMAT) throw new IllegalStateException("Không phải file HNSW v" + FORMAT);
+    dim = buf.getInt(8);
+    n = buf.getInt(12);
+    docs = buf.getInt(16);
+    m = buf.getInt(20);
+    m0 = buf.getInt(24);
+    maxLevel = buf.getInt(28);
+    entry = buf.getInt(32);
+
+    int pos = HEADER_BYTES;
+    vectors = slice(pos, (long) n * dim * 4).asFloatBuffer();
+    pos += n * dim * 4;
+    entryDoc = slice(pos, n * 4L).asIntBuffer();
+    pos += n * 4; // entryDoc
+    pos += n * 4; // level: chỉ dùng khi dựng
+    upperOffset = slice(pos, n * 4L).asIntBuffer();
+    pos += n * 4;
+    layer0 = slice(pos, (long) n * (m0 + 1) * 4).asIntBuffer();
+    pos += n * (m0 + 1) * 4;
+    int upperLen = buf.getInt(pos);
+    pos += 4;
+    upper = slice(pos, upperLen * 4L).asIntBuffer();
+    pos += upperLen * 4;
+    docOffset = slice(pos, (docs + 1) * 4L).asIntBuffer();
+    pos += (docs + 1) * 4;
+    docBase = pos;
+    visited = ThreadLocal.withInitial(() -> new HnswGraph.Visited(n));
+  }
+
+  /**
+   * Map file index (chỉ đọc). {@code HNSW_EF_SEARCH} (mặc định 100): số ứng viên ở tầng 0, lớn hơn = recall cao
+   * hơn, chậm hơn.
+   */
+  public static HnswIndex open(Path file) throws IOException {
+    int ef = Integer.parseInt(System.getenv().getOrDefault("HNSW_EF_SEARCH", "100"));
+    try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+      if (ch.size() > Integer.MAX_VALUE) throw new IllegalStateException("File HNSW quá 2 GB: " + file);
+      ByteBuffer mapped = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size()).order(ByteOrder.LITTLE_ENDIAN);
+      HnswIndex idx = new HnswIndex(mapped, ef);
+      System.out.printf("🗺 HNSW %s: %d vector, %d QA, dim=%d, M=%d%n", file, idx.n, idx.docs, idx.dim, idx.m);
+      return idx;
+    }
+  }
+
+  @Override
+  public List<Hit> topK(float[] query, int k) {
+    if (n == 0 || k <= 0) return List.of();
+    float[] q = VectorCorpus.normalize(query);
+    if (q.length != dim) throw new IllegalArgumentException("Query dim " + q.length + " != " + dim);
+
+    float[] epSim = {dot(q, entry)};
+    int ep = entry;
+    for (int l = maxLevel; l > 0; l--) ep = HnswGraph.greedy(this, q, ep, epSim, l);
+    // dư ứng viên vì nhiều entry (QA + chunk) có thể cùng một QA
+    HnswGraph.Heap res = HnswGraph.searchLayer(this, q, ep, epSim[0], Math.max(efSearch, 2 * k), 0, visited.get());
+
+    int cnt = res.size();
+    int[] nodes = new int[cnt];
+    float[] sims = new float[cnt];
+    for (int i = cnt - 1; i >= 0; i--) {
+      sims[i] = res.peekScore();
+      nodes[i] = res.pop();
+    }
+    List<Hit> out = new ArrayList<>(k);
+    Set<Integer> seen = new HashSet<>();
+    for (int i = 0; i < cnt && out.size() < k; i++) {
+      int d = entryDoc.get(nodes[i]);
+      if (seen.add(d)) out.add(hit(d, sims[i]));
+    }
+    return out;
+  }
+
+  int size() {
+    return n;
+  }
+
+  int dimension() {
+    return dim;
+  }
+
+  @Override
+  public void close() {
+    // MappedByteBuffer được unmap khi GC; file có thể bị thay (rename) trong lúc đang map
+  }
+
+  // ---- Graph (mmap) ----
+
+  @Override
+  public float dot(float[] q, int node) {
+    int base = node * dim;
+    float s = 0;
+    for (int i = 0; i < dim; i++) s += q[i] * vectors.get(base + i);
+    return s;
+  }
+
+  @Override
+  public int degree(int node, int level) {
+    return level == 0 ? layer0.get(node * (m0 + 1)) : upper.get(upperOffset.get(node) + (level - 1) * (m + 1));
+  }
+
+  @Override
+  public int neighbor(int node, int level, int i) {
+    return level == 0 ? layer0.get(node * (m0 + 1) + 1 + i)
+        : upper.get(upperOffset.get(node) + (level - 1) * (m + 1) + 1 + i);
+  }
+
+  private Hit hit(int d, float sim) {
+    int pos = docBase + docOffset.get(d);
+    String[] f = new String[3];
+    for (int i = 0; i < 3; i++) {
+      int len = buf.getInt(pos);
+      byte[] b = new byte[len];
+      buf.get(pos + 4, b);
+      f[i] = new String(b, StandardCharsets.UTF_8);
+      pos += 4 + len;
+    }
+    return new Hit(f[0], f[1], f[2], VectorIndex.score(sim));
+  }
+
+  private ByteBuffer slice(int pos, long bytes) {
+    return buf.slice(pos, (int) bytes).order(ByteOrder.LITTLE_ENDIAN);
+  }
+
+  public static void main(String[] args) throws Exception {
+    String cmd = args.length > 0 ? args[0] : "build";
+    if (!cmd.equals("build")) throw new IllegalArgumentException("Usage: build [file]");
+    Path file = Path.of(args.length > 1 ? args[1] : System.getenv().getOrDefault("HNSW_INDEX_FILE", "qa.hnsw"));
+    String uri = System.getenv().getOrDefault("NEO4J_URI", "bolt://localhost:7687");
+    String user = System.getenv().getOrDefault("NEO4J_USER", "neo4j");
+    String pass = System.getenv().getOrDefault("NEO4J_PASS", "12345678");
+    String db = System.getenv().getOrDefault("NEO4J_DB", "rag");
+
+    VectorCorpus corpus;
+    try (Driver driver = GraphDatabase.driver(uri, AuthTokens.basic(user, pass));
+         Session s = driver.session(SessionConfig.forDatabase(db))) {
+      corpus = VectorCorpus.load(s);
+    }
+    HnswBuilder b = HnswBuilder.fromEnv(corpus);
+    b.build();
+    b.write(file);
+  }
+}
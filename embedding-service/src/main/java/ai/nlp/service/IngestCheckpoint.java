@@ -0,0 +1,143 @@
+package ai.nlp.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.HexFormat;
+import java.util.Properties;
+import java.util.TreeMap;
+
+/**
+ * Checkpoint của một lượt ingest: dòng cuối cùng mà mọi batch tới đó đã commit xong.
+ * <p>
+ * Writer gọi {@link #committed} sau khi {@code executeWrite} thành công. Vì N embed worker có thể trả batch
+ * không theo thứ tự, checkpoint chỉ tiến tới batch liên tiếp dài nhất đã commit ({@code seq} 0..k), nên mọi dòng
+ * tới {@code lastRow} chắc chắn đã nằm trong Neo4j. File được ghi ra file tạm, fsync rồi rename atomic,
+ * nên crash giữa chừng không để lại checkpoint hỏng.
+ * <p>
+ * Checkpoint gắn với fingerprint (SHA-256) của file input và chữ ký cấu hình embedding: resume trên file
+ * khác hoặc model khác bị từ chối.
+ */
+final class IngestCheckpoint {
+
+  private final Path file;
+  private final String fingerprint;
+  private final String signature;
+  private final TreeMap<Long, Integer> done = new TreeMap<>();
+  private long nextSeq;
+  private int lastRow;
+
+  private IngestCheckpoint(Path file, String fingerprint, String signature, int lastRow) {
+    this.file = file;
+    this.fingerprint = fingerprint;
+    this.signature = signature;
+    this.lastRow = lastRow;
+  }
+
+  /**
+   * File checkpoint mặc định nằm cạnh file input.
+   */
+  static Path pathFor(Path input) {
+    String env = System.getenv("INGEST_CHECKPOINT");
+    return env != null ? Path.of(env) : input.resolveSibling(input.getFileName() + ".checkpoint");
+  }
+
+  /**
+   * Lượt chạy mới từ đầu (checkpoint cũ, nếu có, bị ghi đè ở lần commit đầu tiên).
+   */
+  static IngestCheckpoint fresh(Path file, Path input, String signature) throws IOException {
+    return new IngestCheckpoint(file, fingerprint(input), signature, 0);
+  }
+
+  /**
+   * Tiếp tục từ checkpoint; không có checkpoint thì chạy từ đầu.
+   *
+   * @throws IllegalStateException nếu file input hoặc cấu hình embedding đã đổi so với lúc ghi checkpoint
+   */
+  static IngestCheckpoint resume(Path file, Path input, String signature) throws IOException {
+    String fp = fingerprint(input);
+    if (!Files.exists(file)) {
+      System.out.println("ℹ️ Không có checkpoint " + file + ", chạy từ đầu");
+      return new IngestCheckpoint(file, fp, signature, 0);
+    }
+    Properties p = new Properties();
+    try (InputStream in = Files.newInputStream(file)) {
+      p.load(in);
+    }
+    if (!fp.equals(p.getProperty("fingerprint"))) {
+      throw new IllegalStateException("File input đã thay đổi kể từ checkpoint " + file + ", không thể resume");
+    }
+    if (!signature.equals(p.getProperty("signature"))) {
+      throw new IllegalStateException("Cấu hình embedding đã thay đổi kể từ checkpoint " + file + ", không thể resume");
+    }
+    int row = Integer.parseInt(p.getProperty("lastRow", "0"));
+    System.out.println("↩️ Resume sau dòng " + row + " (" + p.getProperty("updatedAt") + ")");
+    return new IngestCheckpoint(file, fp, signature, row);
+  }
+
+  /**
+   * Mọi dòng có số thứ tự {@code <= lastRow()} đã được commit ở lượt trước.
+   */
+  int lastRow() {
+    return lastRow;
+  }
+
+  /**
+   * Batch {@code seq} (dòng cuối là {@code batchLastRow}) vừa commit xong.
+   */
+  synchronized void committed(long seq, int batchLastRow) throws IOException {
+    done.put(seq, batchLastRow);
+    boolean advanced = false;
+    while (!done.isEmpty() && done.firstKey() == nextSeq) {
+      lastRow = done.pollFirstEntry().getValue();
+      nextSeq++;
+      advanced = true;
+    }
+    if (advanced) save();
+  }
+
+  /**
+   * Ingest hoàn tất: checkpoint không còn cần.
+   */
+  void complete() throws IOException {
+    Files.deleteIfExists(file);
+  }
+
+  private void save() throws IOException {
+    Properties p = new Properties();
+    p.setProperty("fingerprint", fingerprint);
+    p.setProperty("signature", signature);
+    p.setProperty("lastRow", String.valueOf(lastRow));
+    p.setProperty("updatedAt", Instant.now().toString());
+
+    Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+    try (OutputStream out = Files.newOutputStream(tmp)) {
+      p.store(out, "IngestQA checkpoint");
+    }
+    try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+      ch.force(true);
+    }
+    Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  static String fingerprint(Path input) throws IOException {
+    try {
+      MessageDigest md = MessageDigest.getInstance("SHA-256");
+      try (InputStream in = new DigestInputStream(Files.newInputStream(input), md)) {
+        in.transferTo(OutputStream.nullOutputStream());
+      }
+      return HexFormat.of().formatHex(md.digest());
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+}
@@ -0,0 +1,215 @@
+package ai.nlp.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.neo4j.driver.*;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+
+import static org.neo4j.driver.Values.parameters;
+
+/**
+ * Nạp output của OllamaExtractor ({@code llm_structured*.jsonl}) vào Neo4j thành knowledge graph:
+ * <pre>
+ *   (:QA)-[:MENTIONS]->(:Entity {name, type})-[:&lt;RELATION&gt; {confidence}]->(:Entity)
+ * </pre>
+ * - Mỗi dòng JSON khớp với :QA qua id nội dung của câu hỏi ({@link IngestQA#baseContentId}), nên không phụ thuộc
+ *   {@code doc_id} ({@code DOC_n}/{@code ROW_n} đánh số theo file nguồn, không còn là id của :QA).
+ *   Câu hỏi chưa được ingest thì entity/quan hệ vẫn được nạp, chỉ thiếu :MENTIONS.
+ * - :Entity định danh theo {@code name}; entity chỉ xuất hiện trong quan hệ có type {@code UNKNOWN} cho tới khi
+ *   gặp dòng khai báo type.
+ * - Tên quan hệ chuẩn hoá thành kiểu quan hệ Neo4j ({@code belongs_to} -> {@code BELONGS_TO}); cùng cặp entity
+ *   và kiểu quan hệ thì giữ confidence cao nhất.
+ * <p>
+ * File được đọc từng dòng và ghi theo batch UNWIND qua {@link Neo4jWriter} (transaction tự điều chỉnh kích
+ * thước, retry lỗi tạm thời). Mặc định một writer ({@code KG_WRITERS=1}): entity dùng chung giữa các QA nên
+ * nhiều writer song song sẽ tranh khoá trên cùng node.
+ * <p>
+ * Run:
+ * java ai.nlp.service.IngestKG [file.jsonl | dir ...]   (thư mục: mọi llm_structured*.jsonl bên trong)
+ */
+public class IngestKG {
+  private static final Pattern NON_IDENT = Pattern.compile("[^A-Z0-9_]+");
+
+  public static void main(String[] args) throws Exception {
+    List<Path> files = inputFiles(args.length == 0 ? new String[]{"."} : args);
+    if (files.isEmpty()) throw new IllegalStateException("Không tìm thấy llm_structured*.jsonl");
+
+    Map<String, String> env = System.getenv();
+    String uri = env.getOrDefault("NEO4J_URI", "bolt://localhost:7687");
+    String user = env.getOrDefault("NEO4J_USER", "neo4j");
+    String pass = env.getOrDefault("NEO4J_PASS", "12345678");
+    String db = env.getOrDefault("NEO4J_DB", "rag");
+    long reportNanos = Long.parseLong(env.getOrDefault("INGEST_REPORT_SECS", "10")) * 1_000_000_000L;
+
+    ObjectMapper om = new ObjectMapper();
+    try (Driver driver = GraphDatabase.driver(uri, AuthTokens.basic(user, pass), Neo4jWriter.driverConfig());
+         Neo4jWriter writer = new Neo4jWriter(driver, db, IngestKG::write, row -> row.get("qaId"),
+             Integer.parseInt(env.getOrDefault("KG_WRITERS", "1")), Neo4jWriter.BatchSizer.fromEnv())) {
+
+      try (Session s = driver.session(SessionConfig.forDatabase(db))) {
+        SchemaMigrations.migrate(s); // Entity.name unique: MERGE theo name dùng index seek
+      }
+
+      long t0 = System.nanoTime(), lastReport = t0;
+      long rows = 0, entities = 0, relations = 0, bad = 0;
+      for (Path file : files) {
+        System.out.println("📄 " + file);
+        try (BufferedReader br = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+          List<Map<String, Object>> batch = new ArrayList<>();
+          int lineNo = 0;
+          for (String line; (line = br.readLine()) != null; ) {
+            lineNo++;
+            if (line.isBlank()) continue;
+            Map<String, Object> row;
+            try {
+              row = toRow(om.readTree(line));
+            } catch (IOException e) {
+              row = null;
+            }
+            if (row == null) {
+              if (bad++ < 10) System.err.println("⚠️ Bỏ qua " + file.getFileName() + ":" + lineNo);
+              continue;
+            }
+            batch.add(row);
+            rows++;
+            entities += ((List<?>) row.get("entities")).size();
+            relations += ((List<?>) row.get("relations")).size();
+
+            if (batch.size() >= writer.batchRows()) {
+              writer.write(batch);
+              batch = new ArrayList<>();
+              long now = System.nanoTime();
+              if (reportNanos > 0 && now - lastReport >= reportNanos) {
+                System.out.println(progress(rows, entities, relations, now - t0) + " | " + writer.stats());
+                lastReport = now;
+              }
+            }
+          }
+          if (!batch.isEmpty()) writer.write(batch);
+        }
+      }
+      System.out.println("✅ KG xong: " + progress(rows, entities, relations, System.nanoTime() - t0)
+          + (bad > 0 ? " | bỏ qua " + bad + " dòng lỗi" : "") + " | " + writer.stats());
+    }
+  }
+
+  /**
+   * Một transaction: entity + :MENTIONS cho cả lát, rồi mỗi kiểu quan hệ một câu UNWIND (kiểu quan hệ không
+   * truyền được bằng parameter, nên được chuẩn hoá rồi ghép vào query).
+   */
+  @SuppressWarnings("unchecked")
+  static void write(TransactionContext tx, List<Map<String, Object>> rows) {
+    tx.run("""
+        UNWIND $rows AS row
+        OPTIONAL MATCH (qa:QA {id: row.qaId})
+        FOREACH (_ IN CASE WHEN qa IS NOT NULL AND row.intent <> '' THEN [1] ELSE [] END |
+          SET qa.intent = row.intent)
+        WITH row, qa
+        UNWIND row.entities AS ent
+        MERGE (e:Entity {name: ent.name})
+        SET e.type = CASE WHEN e.type IS NULL OR e.type = 'UNKNOWN' THEN ent.type ELSE e.type END
+        WITH qa, e
+        WHERE qa IS NOT NULL
+        MERGE (qa)-[:MENTIONS]->(e)
+        """, parameters("rows", rows)).consume();
+
+    Map<String, List<Map<String, Object>>> byType = new TreeMap<>();
+    for (Map<String, Object> row : rows) {
+      for (Map<String, Object> rel : (List<Map<String, Object>>) row.get("relations")) {
+        byType.computeIfAbsent((String) rel.get("type"), k -> new ArrayList<>()).add(rel);
+      }
+    }
+    for (Map.Entry<String, List<Map<String, Object>>> e : byType.entrySet()) {
+      tx.run("""
+          UNWIND $rels AS rel
+          MERGE (h:Entity {name: rel.head})
+          ON CREATE SET h.type = 'UNKNOWN'
+          MERGE (t:Entity {name: rel.tail})
+          ON CREATE SET t.type = 'UNKNOWN'
+          MERGE (h)-[r:`%s`]->(t)
+          SET r.confidence = CASE WHEN r.confidence IS NULL OR rel.confidence > r.confidence
+                                  THEN rel.confidence ELSE r.confidence END
+          """.formatted(e.getKey()), parameters("rels", e.getValue())).consume();
+    }
+  }
+
+  /**
+   * Dòng JSON -> tham số cho {@link #write}; null nếu thiếu câu hỏi.
+   */
+  static Map<String, Object> toRow(JsonNode node) {
+    String q = node.path("question").asText("").trim();
+    if (q.isEmpty()) return null;
+
+    List<Map<String, Object>> ents = new ArrayList<>();
+    Map<String, Boolean> seen = new HashMap<>();
+    for (JsonNode e : node.path("entities")) {
+      String name = e.path("name").asText("").trim();
+      if (name.isEmpty() || seen.put(name, true) != null) continue;
+      String type = e.path("type").asText("").trim();
+      ents.add(Map.of("name", name, "type", type.isEmpty() ? "MISC" : type.toUpperCase(Locale.ROOT)));
+    }
+
+    List<Map<String, Object>> rels = new ArrayList<>();
+    for (JsonNode r : node.path("relations")) {
+      String head = r.path("head").asText("").trim();
+      String tail = r.path("tail").asText("").trim();
+      if (head.isEmpty() || tail.isEmpty()) continue;
+      rels.add(Map.of("head", head, "tail", tail, "type", relationType(r.path("relation").asText("")),
+          "confidence", r.path("confidence").asDouble(0.5)));
+    }
+
+    Map<String, Object> row = new HashMap<>();
+    row.put("qaId", IngestQA.baseContentId(q));
+    row.put("intent", node.path("intent").asText(""));
+    row.put("entities", ents);
+    row.put("relations", rels);
+    return row;
+  }
+
+  /**
+   * {@code "belongs to"} / {@code belongs_to} -> {@code BELONGS_TO}; rỗng -> {@code RELATED_TO}.
+   */
+  static String relationType(String relation) {
+    String t = NON_IDENT.matcher(relation.trim().toUpperCase(Locale.ROOT)).replaceAll("_");
+    t = t.replaceAll("^_+|_+$", "");
+    if (t.isEmpty()) return "RELATED_TO";
+    return Character.isDigit(t.charAt(0)) ? "R_" + t : t;
+  }
+
+  private static String progress(long rows, long entities, long relations, long nanos) {
+    double secs = Math.max(nanos / 1e9, 1e-9);
+    return String.format("⏱ %.0fs | %d dòng (%.0f/s) | %d entity (%.0f/s) | %d quan hệ (%.0f/s)",
+        secs, rows, rows / secs, entities, entities / secs, relations, relations / secs);
+  }
+
+  private static List<Path> inputFiles(String[] args) throws IOException {
+    List<Path> files = new ArrayList<>();
+    for (String a : args) {
+      Path p = Path.of(a);
+      if (!Files.isDirectory(p)) {
+        files.add(p);
+        continue;
+      }
+      List<Path> found = new ArrayList<>();
+      try (DirectoryStream<Path> ds = Files.newDirectoryStream(p, "llm_structured*.jsonl")) {
+        ds.forEach(found::add);
+      }
+      found.sort(null);
+      files.addAll(found);
+    }
+    return files;
+  }
+}
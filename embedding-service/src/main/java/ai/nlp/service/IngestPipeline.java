@@ -0,0 +1,353 @@
+package ai.nlp.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Pipeline ingest 3 tầng nối bằng hàng đợi có giới hạn:
+ * <pre>
+ *   reader (thread gọi {@link #submit}) -> embedQueue -> N embed worker -> writeQueue -> 1 writer
+ * </pre>
+ * Hàng đợi đầy thì tầng trước bị chặn (backpressure), nên bộ nhớ chỉ giữ tối đa
+ * {@code 2 × queueCapacity + workers + 1} batch. Thời gian tổng tiến về thời gian của tầng chậm nhất
+ * thay vì tổng các tầng. Chỉ thread writer gọi {@link Sink}; {@link Neo4jWriter} tự chia tiếp cho nhiều session.
+ * <p>
+ * Lỗi ở bất kỳ tầng nào làm dừng cả pipeline; {@link #submit}/{@link #finish} ném lại lỗi đầu tiên.
+ * <p>
+ * Mỗi {@code INGEST_REPORT_SECS} giây in tiến độ: dòng/s từng tầng, embedding/s, histogram độ trễ của lượt
+ * embed và lượt ghi, độ sâu hàng đợi, cộng thống kê của {@link Sink}. {@link #summary()} là cùng số liệu dạng
+ * map để ghi JSON khi kết thúc ({@link #writeSummary}).
+ */
+final class IngestPipeline implements AutoCloseable {
+
+  /**
+   * Một batch dòng, {@code seq} tăng dần theo thứ tự đọc; {@code lastRow} là số dòng (trong sheet)
+   * của dòng cuối cùng reader đã đọc khi tạo batch.
+   */
+  record Batch(long seq, int lastRow, List<Map<String, Object>> rows) {
+  }
+
+  /**
+   * Đích ghi của tầng writer: Neo4j ({@link IngestQA#write}) hoặc file import ({@link BulkExporter}).
+   */
+  @FunctionalInterface
+  interface Sink {
+    void write(List<Map<String, Object>> rows) throws Exception;
+
+    /**
+     * Thống kê riêng của đích ghi, in kèm tiến độ (null nếu không có).
+     */
+    default String stats() {
+      return null;
+    }
+
+    /**
+     * Số liệu của đích ghi cho JSON summary (rỗng nếu không có).
+     */
+    default Map<String, Object> metrics() {
+      return Map.of();
+    }
+  }
+
+  /**
+   * Gọi trên thread writer ngay sau khi batch được commit.
+   */
+  @FunctionalInterface
+  interface WriteListener {
+    void written(Batch b) throws Exception;
+  }
+
+  private static final Batch END = new Batch(-1, -1, List.of());
+
+  /**
+   * Số dòng, thời gian làm việc thực (không tính lúc chờ hàng đợi) và độ trễ từng batch của một tầng.
+   */
+  static final class Stage {
+    final String name;
+    final LongAdder rows = new LongAdder();
+    final LongAdder batches = new LongAdder();
+    final LongAdder busyNanos = new LongAdder();
+    final LatencyHistogram latency = new LatencyHistogram();
+
+    Stage(String name) {
+      this.name = name;
+    }
+
+    void record(int n, long startNanos) {
+      long nanos = System.nanoTime() - startNanos;
+      rows.add(n);
+      batches.increment();
+      busyNanos.add(nanos);
+      latency.record(nanos);
+    }
+
+    /**
+     * Dòng/giây nếu tầng này chạy liên tục (busy time chia cho số thread của tầng).
+     */
+    double capacity(int threads) {
+      long busy = busyNanos.sum();
+      return busy == 0 ? 0 : rows.sum() * 1e9 * threads / busy;
+    }
+
+    Map<String, Object> toMap(int threads, double secs) {
+      Map<String, Object> m = new LinkedHashMap<>();
+      m.put("threads", threads);
+      m.put("rows", rows.sum());
+      m.put("batches", batches.sum());
+      m.put("rowsPerSec", Math.round(rows.sum() / Math.max(secs, 1e-9)));
+      m.put("capacityRowsPerSec", Math.round(capacity(threads)));
+      m.put("batchLatency", latency.toMap());
+      return m;
+    }
+  }
+
+  private final Embedder embedder;
+  private final Sink sink;
+  private final int workers;
+  private final BlockingQueue<Batch> embedQueue;
+  private final BlockingQueue<Batch> writeQueue;
+  private final int queueCapacity;
+  private final List<Thread> threads = new ArrayList<>();
+  private final AtomicReference<Throwable> failure = new AtomicReference<>();
+  private final ScheduledExecutorService reporter;
+  private final WriteListener onWritten;
+  private final long startNanos = System.nanoTime();
+  private final LongAdder embeddings = new LongAdder();
+  private final AtomicInteger maxEmbedQueue = new AtomicInteger();
+  private final AtomicInteger maxWriteQueue = new AtomicInteger();
+  private long nextSeq;
+  private int finishedWorkers;
+
+  final Stage read = new Stage("read");
+  final Stage embed = new Stage("embed");
+  final Stage write = new Stage("write");
+
+  IngestPipeline(Embedder embedder, Sink sink, int workers, int queueCapacity, long reportEverySeconds,
+                 WriteListener onWritten) {
+    this.embedder = embedder;
+    this.sink = sink;
+    this.onWritten = onWritten;
+    this.workers = Math.max(1, workers);
+    this.queueCapacity = Math.max(1, queueCapacity);
+    this.embedQueue = new ArrayBlockingQueue<>(this.queueCapacity);
+    this.writeQueue = new ArrayBlockingQueue<>(this.queueCapacity);
+
+    for (int i = 0; i < this.workers; i++) threads.add(start("ingest-embed-" + i, this::embedLoop));
+    threads.add(start("ingest-writer", this::writeLoop));
+
+    reporter = Executors.newSingleThreadScheduledExecutor(r -> {
+      Thread t = new Thread(r, "ingest-progress");
+      t.setDaemon(true);
+      return t;
+    });
+    if (reportEverySeconds > 0) {
+      reporter.scheduleAtFixedRate(() -> System.out.println(progress()),
+          reportEverySeconds, reportEverySeconds, TimeUnit.SECONDS);
+    }
+  }
+
+  static IngestPipeline fromEnv(Embedder embedder, Sink sink, WriteListener onWritten) {
+    Map<String, String> env = System.getenv();
+    return new IngestPipeline(embedder, sink,
+        Integer.parseInt(env.getOrDefault("INGEST_EMBED_WORKERS", "2")),
+        Integer.parseInt(env.getOrDefault("INGEST_QUEUE_CAPACITY", "4")),
+        Long.parseLong(env.getOrDefault("INGEST_REPORT_SECS", "10")),
+        onWritten);
+  }
+
+  /**
+   * Tầng reader: đẩy một batch vào pipeline, chặn khi embedQueue đầy.
+   *
+   * @param lastRow        số dòng cuối cùng đã đọc (kể cả các dòng bị bỏ qua)
+   * @param readStartNanos thời điểm bắt đầu đọc batch này (để tính thời gian làm việc của reader)
+   */
+  void submit(List<Map<String, Object>> rows, int lastRow, long readStartNanos) throws Exception {
+    read.record(rows.size(), readStartNanos);
+    put(embedQueue, new Batch(nextSeq++, lastRow, rows));
+  }
+
+  /**
+   * Báo hết dữ liệu, chờ mọi tầng chạy xong rồi in tổng kết.
+   */
+  void finish() throws Exception {
+    for (int i = 0; i < workers; i++) put(embedQueue, END);
+    for (Thread t : threads) t.join();
+    rethrow();
+    System.out.println(progress());
+  }
+
+  /**
+   * Dừng mọi thread (kể cả khi reader bỏ ngang vì lỗi).
+   */
+  @Override
+  public void close() {
+    reporter.shutdownNow();
+    for (Thread t : threads) t.interrupt();
+  }
+
+  String progress() {
+    double secs = Math.max((System.nanoTime() - startNanos) / 1e9, 1e-9);
+    StringBuilder sb = new StringBuilder(String.format("⏱ %.0fs", secs));
+    for (Stage s : List.of(read, embed, write)) {
+      int n = s == embed ? workers : 1;
+      sb.append(String.format(" | %s %d rows (%.0f/s, max %.0f/s)",
+          s.name, s.rows.sum(), s.rows.sum() / secs, s.capacity(n)));
+    }
+    sb.append(String.format(" | %d embeddings (%.0f/s)", embeddings.sum(), embeddings.sum() / secs));
+    sb.append(String.format(" | queue embed=%d/%d write=%d/%d (max %d/%d)", embedQueue.size(), queueCapacity,
+        writeQueue.size(), queueCapacity, maxEmbedQueue.get(), maxWriteQueue.get()));
+    sb.append("\n   embed batch ").append(embed.latency.summary());
+    LatencyHistogram tei = teiLatency();
+    if (tei != null) sb.append(" | TEI call ").append(tei.summary());
+    sb.append("\n   write batch ").append(write.latency.summary());
+    String sinkStats = sink.stats();
+    if (sinkStats != null) sb.append(" | ").append(sinkStats);
+    return sb.toString();
+  }
+
+  /**
+   * Toàn bộ số liệu của {@link #progress()} dạng map (cho JSON summary).
+   */
+  Map<String, Object> summary() {
+    double secs = Math.max((System.nanoTime() - startNanos) / 1e9, 1e-9);
+    Map<String, Object> m = new LinkedHashMap<>();
+    m.put("elapsedSecs", Math.round(secs * 1000) / 1000.0);
+    m.put("embeddings", embeddings.sum());
+    m.put("embeddingsPerSec", Math.round(embeddings.sum() / secs));
+    Map<String, Object> stages = new LinkedHashMap<>();
+    stages.put(read.name, read.toMap(1, secs));
+    stages.put(embed.name, embed.toMap(workers, secs));
+    stages.put(write.name, write.toMap(1, secs));
+    m.put("stages", stages);
+    LatencyHistogram tei = teiLatency();
+    if (tei != null) m.put("teiCallLatency", tei.toMap());
+    m.put("queue", Map.of("capacity", queueCapacity,
+        "maxEmbedDepth", maxEmbedQueue.get(), "maxWriteDepth", maxWriteQueue.get()));
+    Map<String, Object> sinkMetrics = sink.metrics();
+    if (!sinkMetrics.isEmpty()) m.put("sink", sinkMetrics);
+    return m;
+  }
+
+  /**
+   * Ghi summary ra file JSON (ghi đè). Lỗi ghi chỉ được cảnh báo: gọi trong finally, không được che lỗi ingest.
+   */
+  static void writeSummary(Path file, Map<String, Object> summary) {
+    try {
+      new ObjectMapper().writerWithDefaultPrettyPrinter().writeValue(file.toFile(), summary);
+      System.out.println("📊 Summary: " + file);
+    } catch (IOException e) {
+      System.err.println("⚠️ Không ghi được summary " + file + ": " + e);
+    }
+  }
+
+  /**
+   * Độ trễ từng HTTP call tới TEI; backend khác (ONNX) chỉ có độ trễ cấp batch.
+   */
+  private LatencyHistogram teiLatency() {
+    return embedder instanceof EmbeddingClient c ? c.callLatency() : null;
+  }
+
+  // ---- stages ----
+
+  private void embedLoop() {
+    try {
+      for (Batch b; (b = take(embedQueue)) != END; ) {
+        long t0 = System.nanoTime();
+        float[][] embs = IngestQA.embedAsync(embedder, b.rows).join();
+        IngestQA.attach(b.rows, embs);
+        embed.record(b.rows.size(), t0);
+        embeddings.add(embs.length);
+        put(writeQueue, b);
+      }
+    } catch (Throwable e) {
+      fail(e);
+    } finally {
+      // worker cuối cùng kết thúc mới báo writer dừng
+      synchronized (this) {
+        if (++finishedWorkers == workers) offerEnd();
+      }
+    }
+  }
+
+  private void writeLoop() {
+    try {
+      for (Batch b; (b = take(writeQueue)) != END; ) {
+        long t0 = System.nanoTime();
+        sink.write(b.rows);
+        write.record(b.rows.size(), t0);
+        if (onWritten != null) onWritten.written(b);
+      }
+    } catch (Throwable e) {
+      fail(e);
+    }
+  }
+
+  // ---- helpers ----
+
+  private void put(BlockingQueue<Batch> q, Batch b) throws Exception {
+    while (!q.offer(b, 200, TimeUnit.MILLISECONDS)) rethrow();
+    // độ sâu lớn nhất: hàng đợi thường xuyên đầy nghĩa là tầng sau là nút thắt
+    (q == embedQueue ? maxEmbedQueue : maxWriteQueue).accumulateAndGet(q.size(), Math::max);
+  }
+
+  /**
+   * Lấy batch kế tiếp; trả về {@link #END} ngay khi pipeline đã lỗi, kể cả lúc hàng đợi rỗng
+   * (tầng trước đã dừng nên sẽ không còn ai đẩy END vào).
+   */
+  private Batch take(BlockingQueue<Batch> q) throws InterruptedException {
+    while (failure.get() == null) {
+      Batch b = q.poll(200, TimeUnit.MILLISECONDS);
+      if (b != null) return failure.get() == null ? b : END;
+    }
+    return END;
+  }
+
+  private void offerEnd() {
+    try {
+      // writer có thể đã dừng vì lỗi: khi đó không chờ chỗ trống nữa
+      while (!writeQueue.offer(END, 200, TimeUnit.MILLISECONDS)) {
+        if (failure.get() != null) return;
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Ghi nhận lỗi đầu tiên. Không xoá hàng đợi (sẽ mất các END mà {@link #finish} đã đẩy vào): mọi tầng
+   * đều chờ hàng đợi bằng poll/offer có timeout và tự dừng khi thấy {@code failure}.
+   */
+  private void fail(Throwable e) {
+    failure.compareAndSet(null, e);
+  }
+
+  private void rethrow() throws Exception {
+    Throwable e = failure.get();
+    if (e == null) return;
+    if (e instanceof CompletionException && e.getCause() != null) e = e.getCause();
+    if (e instanceof Exception ex) throw ex;
+    throw (Error) e;
+  }
+
+  private static Thread start(String name, Runnable r) {
+    Thread t = new Thread(r, name);
+    t.setDaemon(true);
+    t.start();
+    return t;
+  }
+}
@@ -1,20 +1,54 @@
 package ai.nlp.service;// IngestQA.java
 
-import org.apache.poi.ss.usermodel.*;
-import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import ai.nlp.XlsxRowReader;
 import org.neo4j.driver.*;
 
-import java.io.FileInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import static org.neo4j.driver.Values.parameters;
 
 public class IngestQA {
+  /**
+   * Args: {@code [file.xlsx] [--resume] [--bulk-export <dir>] [--index-version <tag>] [--activate]}.
+   * - {@code --resume} tiếp tục sau batch cuối cùng đã commit của lượt trước (xem {@link IngestCheckpoint})
+   * - {@code --bulk-export <dir>} không ghi Neo4j: embed rồi xuất CSV + script cho neo4j-admin import
+   *   (xem {@link BulkExporter}); dùng cho lần nạp đầu hàng triệu dòng
+   * - {@code --index-version <tag>} ghi embedding vào property/index của version đó (mặc định: version đang
+   *   phục vụ) trong khi reader vẫn đọc version cũ; {@code --activate} chuyển reader sang version này khi index
+   *   đã ONLINE (xem {@link VectorIndexManager})
+   * <p>
+   * Khi kết thúc (kể cả khi lỗi) ghi JSON summary ra {@code INGEST_SUMMARY} (mặc định {@code <file>.summary.json}):
+   * số dòng, throughput và histogram độ trễ từng tầng, để so giữa các lần chạy.
+   */
   public static void main(String[] args) throws Exception {
-    String excel = args.length > 0 ? args[0] : "D:\\project\\embedding-service\\src\\main\\java\\ai\\nlp\\input\\uplus_10000_dedup.xlsx";
+    String excel = "D:\\project\\embedding-service\\src\\main\\java\\ai\\nlp\\input\\uplus_10000_dedup.xlsx";
+    boolean resume = false;
+    boolean activate = false;
+    Path bulkDir = null;
+    VectorIndexManager.Version requested = null;
+    for (int i = 0; i < args.length; i++) {
+      if (args[i].equals("--resume")) resume = true;
+      else if (args[i].equals("--activate")) activate = true;
+      else if (args[i].equals("--bulk-export") && i + 1 < args.length) bulkDir = Path.of(args[++i]);
+      else if (args[i].equals("--index-version") && i + 1 < args.length)
+        requested = new VectorIndexManager.Version(args[++i]);
+      else excel = args[i];
+    }
+    boolean bulk = bulkDir != null;
     String teiUrl = System.getenv().getOrDefault("TEI_URL", "http://localhost:8080/embeddings");
 
     String uri = System.getenv().getOrDefault("NEO4J_URI", "bolt://localhost:7687");
@@ -22,75 +56,309 @@ public class IngestQA {
     String pass = System.getenv().getOrDefault("NEO4J_PASS", "12345678");
     String db = System.getenv().getOrDefault("NEO4J_DB", "rag");
 
-    try (Driver driver = GraphDatabase.driver(uri, AuthTokens.basic(user, pass));
-         Session session = driver.session(SessionConfig.forDatabase(db));
-         FileInputStream fis = new FileInputStream(excel);
-         Workbook wb = new XSSFWorkbook(fis)) {
+    Map<String, Object> report = new LinkedHashMap<>();
+    report.put("input", excel);
+    report.put("mode", bulk ? "bulk-export" : "neo4j");
+    report.put("startedAt", Instant.now().toString());
+    String status = "failed";
+
+    // EMBED_CACHE_DIR: chạy lại sau khi sửa vài dòng chỉ embed các dòng đã đổi
+    // bulk export không cần Neo4j: driver/session để null (try-with-resources bỏ qua resource null)
+    try (Embedder embedder = Embedder.fromEnv(teiUrl);
+         Driver driver = bulk ? null : GraphDatabase.driver(uri, AuthTokens.basic(user, pass), Neo4jWriter.driverConfig());
+         Session session = bulk ? null : driver.session(SessionConfig.forDatabase(db));
+         BulkExporter exporter = bulk ? new BulkExporter(bulkDir, vectorSimilarity(),
+             requested == null ? VectorIndexManager.Version.DEFAULT : requested) : null;
+         XlsxRowReader in = XlsxRowReader.open(Path.of(excel));
+         PassageChunker chunker = PassageChunker.fromEnv()) {
 
-      Sheet sh = wb.getSheetAt(0);
-      Row header = sh.getRow(0);
+      XlsxRowReader.Row header = in.header();
       if (header == null) throw new IllegalStateException("Thiếu header");
 
-      Map<String, Integer> col = detect(header);
+      Map<String, Integer> col = XlsxRowReader.detect(header);
       int qCol = col.get("question"), aCol = col.get("answer");
 
-      EmbeddingClient embedder = new EmbeddingClient(teiUrl);
-      DataFormatter fmt = new DataFormatter();
+      // constraint cho MERGE theo id (không có thì mỗi MERGE quét cả label) + vector index đã biết số chiều
+      if (!bulk) SchemaMigrations.migrate(session);
+
+      VectorIndexManager.Version version = requested != null ? requested
+          : bulk ? VectorIndexManager.Version.DEFAULT : VectorIndexManager.activeVersion(session);
+      System.out.println("ℹ️ Ghi vào " + version.property() + " / " + version.qaIndex());
+      report.put("indexVersion", version.tag());
+
+      // id -> contentHash đã có trong DB: dòng không đổi thì bỏ qua cả embed lẫn ghi
+      Map<String, String> existing = bulk ? new HashMap<>() : loadHashes(session, version);
+      String signature = embeddingSignature(version);
+
+      Path input = Path.of(excel), cpFile = IngestCheckpoint.pathFor(input);
+      IngestCheckpoint checkpoint = bulk ? null : resume
+          ? IngestCheckpoint.resume(cpFile, input, signature)
+          : IngestCheckpoint.fresh(cpFile, input, signature);
+      int resumeAfter = checkpoint == null ? 0 : checkpoint.lastRow();
+      Map<String, Integer> seenQuestions = new HashMap<>();
+      int unchanged = 0, changed = 0;
 
       final int BATCH = 500;
-      List<Map<String, Object>> batch = new ArrayList<>(BATCH);
-
-      for (int r = 1; r <= sh.getLastRowNum(); r++) {
-        Row row = sh.getRow(r);
-        if (row == null) continue;
-        String q = fmt.formatCellValue(row.getCell(qCol)).trim();
-        String a = fmt.formatCellValue(row.getCell(aCol)).trim();
-        if (q.isBlank() || a.isBlank()) continue;
-
-        // embed nội dung (passage)
-        float[] emb = embedder.embedE5(q + " " + a, false); // false = passage
-        List<Double> vec = new ArrayList<>(emb.length);
-        for (float f : emb) vec.add((double) f);
-
-        Map<String, Object> m = new HashMap<>();
-        m.put("id", "qa-" + r); // hoặc lấy từ cột id nếu có
-        m.put("q", q);
-        m.put("a", a);
-        m.put("emb", vec);
-        batch.add(m);
-
-        if (batch.size() >= BATCH) {
-          write(session, batch);
-          batch.clear();
+      // index tạo ngay ở batch đầu (số chiều lấy từ vector đầu tiên) để populate song song với lúc ghi
+      AtomicBoolean indexed = new AtomicBoolean();
+      IngestPipeline.WriteListener onWritten = bulk ? null : b -> checkpoint.committed(b.seq(), b.lastRow());
+      // reader (thread này) -> N embed worker -> 1 writer (chia tiếp cho nhiều session), nối bằng hàng đợi có giới hạn
+      try (Neo4jWriter writer = bulk ? null : Neo4jWriter.fromEnv(driver, db, (tx, rows) -> write(tx, rows, version))
+          .beforeFirstWrite(rows -> {
+            int dim = ((float[]) rows.get(0).get("emb")).length;
+            VectorIndexManager.ensureIndexes(session, version, dim, vectorSimilarity(), true);
+            indexed.set(true);
+          });
+           IngestPipeline pipeline = IngestPipeline.fromEnv(embedder, bulk ? exporter::write : writer, onWritten)) {
+        try {
+          // batch theo kích thước transaction mà writer đang điều chỉnh (bulk export: cố định)
+          int batchRows = bulk ? BATCH : writer.batchRows();
+          List<Map<String, Object>> batch = new ArrayList<>(batchRows);
+          long t0 = System.nanoTime();
+          int lastRow = 0;
+          for (XlsxRowReader.Row row; (row = in.next()) != null; ) {
+            lastRow = row.num();
+            String q = row.get(qCol).trim();
+            String a = row.get(aCol).trim();
+            if (q.isBlank() || a.isBlank()) continue;
+
+            String id = contentId(q, seenQuestions);
+            String hash = contentHash(signature, q, a);
+            if (row.num() <= resumeAfter) {
+              existing.remove(id); // đã commit ở lượt trước: chỉ ghi nhận id để không bị xoá
+              unchanged++;
+              continue;
+            }
+            if (hash.equals(existing.remove(id))) {
+              unchanged++;
+              continue;
+            }
+            changed++;
+
+            Map<String, Object> m = new HashMap<>();
+            m.put("id", id);
+            m.put("hash", hash);
+            m.put("q", q);
+            m.put("a", a);
+            m.put("passages", chunker.chunk(q, a));
+            batch.add(m);
+
+            if (batch.size() >= batchRows) {
+              pipeline.submit(batch, row.num(), t0);
+              batchRows = bulk ? BATCH : writer.batchRows();
+              batch = new ArrayList<>(batchRows);
+              t0 = System.nanoTime();
+            }
+          }
+          if (!batch.isEmpty()) pipeline.submit(batch, lastRow, t0);
+          pipeline.finish();
+        } finally {
+          report.put("changed", changed);
+          report.put("unchanged", unchanged);
+          report.put("pipeline", pipeline.summary());
         }
       }
-      if (!batch.isEmpty()) write(session, batch);
+      if (bulk) {
+        System.out.printf("✅ Export xong: %d dòng. Chạy %s rồi %s%n", changed,
+            bulkDir.resolve("import.sh"), bulkDir.resolve("post-import.sh"));
+        status = "ok";
+        return;
+      }
+      // chỉ xoá khi đã đọc + ghi trọn file: còn lại trong existing là QA không còn trong file
+      int deleted = deleteMissing(session, existing.keySet());
+      awaitIndexes(session, version, indexed.get());
+      checkpoint.complete();
+      if (activate) VectorIndexManager.activate(session, version);
+
+      report.put("deleted", deleted);
+      status = "ok";
 
-      System.out.println("✅ Ingest xong");
+      System.out.printf("✅ Ingest xong: %d mới/đổi, %d không đổi, %d đã xoá%n", changed, unchanged, deleted);
+    } catch (Exception e) {
+      report.put("error", e.toString());
+      throw e;
+    } finally {
+      report.put("status", status);
+      report.put("finishedAt", Instant.now().toString());
+      IngestPipeline.writeSummary(summaryPath(Path.of(excel)), report);
     }
   }
 
-  static void write(Session s, List<Map<String, Object>> rows) {
-    s.executeWrite(tx -> {
-      tx.run("""
-            UNWIND $rows AS row
-            MERGE (n:QA {id: row.id})
-            SET n.question=row.q, n.answer=row.a, n.embedding=row.emb
-          """, parameters("rows", rows));
-      return null;
-    });
+  /**
+   * File JSON summary: {@code INGEST_SUMMARY} hoặc {@code <input>.summary.json} cạnh file input.
+   */
+  static Path summaryPath(Path input) {
+    String env = System.getenv("INGEST_SUMMARY");
+    return env != null ? Path.of(env) : input.resolveSibling(input.getFileName() + ".summary.json");
   }
 
-  static Map<String, Integer> detect(Row header) {
-    Map<String, Integer> m = new HashMap<>();
-    for (Cell c : header) {
-      String name = c == null ? "" : c.getStringCellValue();
-      String low = name == null ? "" : name.trim().toLowerCase();
-      if (low.contains("question")) m.put("question", c.getColumnIndex());
-      if (low.contains("answer")) m.put("answer", c.getColumnIndex());
+  /**
+   * Gửi embedding cả batch lên TEI (ít request nhất có thể); các request con chạy song song.
+   * Mọi chunk của mọi dòng đi chung một lượt; embedder tự gom các chunk dài tương đương.
+   */
+  @SuppressWarnings("unchecked")
+  static CompletableFuture<float[][]> embedAsync(Embedder embedder, List<Map<String, Object>> rows) {
+    List<String> texts = new ArrayList<>(rows.size());
+    for (Map<String, Object> m : rows) texts.addAll((List<String>) m.get("passages"));
+    return embedder.embedBatchAsync(texts, false); // false = passage
+  }
+
+  /**
+   * Gắn vector vào từng dòng. Dòng một chunk: chỉ có {@code emb} trên :QA.
+   * Dòng nhiều chunk: :QA giữ vector chunk đầu (để qa_embedding_index vẫn phủ mọi QA),
+   * mọi chunk được ghi thành :QAChunk để tìm được cả phần sau của câu trả lời dài.
+   * Vector giữ nguyên {@code float[]}: driver gửi thẳng mảng, không tạo List&lt;Double&gt;.
+   */
+  @SuppressWarnings("unchecked")
+  static void attach(List<Map<String, Object>> rows, float[][] embs) {
+    int k = 0;
+    for (Map<String, Object> row : rows) {
+      List<String> passages = (List<String>) row.remove("passages");
+      List<Map<String, Object>> chunks = new ArrayList<>();
+      for (int seq = 0; seq < passages.size(); seq++, k++) {
+        float[] vec = embs[k];
+        if (seq == 0) row.put("emb", vec);
+        if (passages.size() == 1) break;
+        chunks.add(Map.of("seq", seq, "text", passages.get(seq), "emb", vec));
+      }
+      row.put("chunks", chunks);
+    }
+  }
+
+  /**
+   * Embedding được ghi bằng {@code db.create.setNodeVectorProperty}: Neo4j kiểm tra và lưu thành mảng float32
+   * (một nửa dung lượng so với SET trực tiếp, vốn lưu LIST&lt;FLOAT&gt; 64-bit).
+   * Vector và hash nằm trên property của {@code version}. :QAChunk thuộc riêng từng version (id theo
+   * {@link VectorIndexManager.Version#chunkId}, {@code indexVersion}); chỉ chunk thừa của chính version này bị xoá.
+   * Chạy trong transaction do {@link Neo4jWriter} quản lý (retry, batch size, partition).
+   */
+  static void write(TransactionContext tx, List<Map<String, Object>> rows, VectorIndexManager.Version version) {
+    tx.run("""
+          UNWIND $rows AS row
+          MERGE (n:QA {id: row.id})
+          SET n.question=row.q, n.answer=row.a, n.%s=row.hash
+          WITH n, row
+          CALL db.create.setNodeVectorProperty(n, $prop, row.emb)
+          CALL {
+            WITH n, row
+            MATCH (n)-[:HAS_CHUNK]->(old:QAChunk)
+            WHERE coalesce(old.indexVersion, '') = $tag AND old.seq >= size(row.chunks)
+            DETACH DELETE old
+          }
+          CALL {
+            WITH n, row
+            UNWIND row.chunks AS ch
+            MERGE (c:QAChunk {id: row.id + $sep + toString(ch.seq)})
+            SET c.qaId=row.id, c.seq=ch.seq, c.text=ch.text, c.indexVersion=$tag
+            MERGE (n)-[:HAS_CHUNK]->(c)
+            WITH c, ch
+            CALL db.create.setNodeVectorProperty(c, $prop, ch.emb)
+            RETURN count(*) AS written
+          }
+          RETURN count(*) AS rows
+        """.formatted(version.hashProperty()), parameters("rows", rows, "prop", version.property(),
+        "tag", version.tag(), "sep", version.chunkSeparator())).consume();
+  }
+
+  /**
+   * Id ổn định theo nội dung: hash của câu hỏi đã chuẩn hoá (trim, gộp khoảng trắng, lowercase), nên chèn/xoá
+   * dòng khác không làm đổi id. Câu hỏi lặp lại trong cùng file được đánh số theo thứ tự xuất hiện.
+   */
+  static String contentId(String q, Map<String, Integer> seenQuestions) {
+    String id = baseContentId(q);
+    int n = seenQuestions.merge(id, 1, Integer::sum);
+    return n == 1 ? id : id + "-" + n;
+  }
+
+  /**
+   * Id của lần xuất hiện đầu tiên của câu hỏi {@code q} (không có hậu tố đánh số).
+   */
+  static String baseContentId(String q) {
+    String key = q.trim().replaceAll("\\s+", " ").toLowerCase();
+    return "qa-" + sha256Hex(key).substring(0, 16);
+  }
+
+  /**
+   * Hash nội dung của một dòng, gồm cả cấu hình embedding: đổi model/projection/cách chunk thì mọi dòng được
+   * embed lại dù text không đổi.
+   */
+  static String contentHash(String signature, String q, String a) {
+    return sha256Hex(signature + '\0' + q + '\0' + a);
+  }
+
+  static String vectorSimilarity() {
+    return System.getenv().getOrDefault("VECTOR_SIMILARITY", "cosine");
+  }
+
+  static String embeddingSignature(VectorIndexManager.Version version) {
+    Map<String, String> env = System.getenv();
+    String sig = String.join("|",
+        env.getOrDefault("EMBED_BACKEND", "tei"),
+        env.getOrDefault("TEI_MODEL_ID", "intfloat/multilingual-e5-base"),
+        env.getOrDefault("EMBED_PROJECTION", ""),
+        env.getOrDefault("CHUNK_MAX_TOKENS", "448"),
+        PassageChunker.signature());
+    // version mặc định giữ chữ ký cũ để hash/checkpoint đã có vẫn khớp
+    return version.tag().isEmpty() ? sig : sig + "|" + version.tag();
+  }
+
+  private static String sha256Hex(String s) {
+    try {
+      byte[] d = MessageDigest.getInstance("SHA-256").digest(s.getBytes(StandardCharsets.UTF_8));
+      return HexFormat.of().formatHex(d);
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * id -> contentHash (của {@code version}) của mọi :QA hiện có; QA chưa có hash của version này map tới null
+   * nên sẽ được embed và ghi lại.
+   */
+  static Map<String, String> loadHashes(Session s, VectorIndexManager.Version version) {
+    Map<String, String> m = new HashMap<>();
+    var rs = s.run("MATCH (n:QA) RETURN n.id AS id, n.%s AS h".formatted(version.hashProperty()));
+    while (rs.hasNext()) {
+      var r = rs.next();
+      m.put(r.get("id").asString(), r.get("h").isNull() ? null : r.get("h").asString());
     }
-    if (!m.containsKey("question") || !m.containsKey("answer"))
-      throw new IllegalStateException("Không tìm thấy cột question/answer");
     return m;
   }
+
+  /**
+   * Xoá các :QA (kèm :QAChunk) theo lô để mỗi transaction nhỏ.
+   */
+  static int deleteMissing(Session s, Collection<String> ids) {
+    final int DELETE_BATCH = 1000;
+    List<String> all = new ArrayList<>(ids);
+    for (int i = 0; i < all.size(); i += DELETE_BATCH) {
+      List<String> part = all.subList(i, Math.min(all.size(), i + DELETE_BATCH));
+      s.executeWrite(tx -> {
+        tx.run("""
+              UNWIND $ids AS id
+              MATCH (n:QA {id: id})
+              OPTIONAL MATCH (n)-[:HAS_CHUNK]->(c:QAChunk)
+              DETACH DELETE c, n
+            """, parameters("ids", part)).consume();
+        return null;
+      });
+    }
+    return all.size();
+  }
+
+  /**
+   * Đảm bảo index của {@code version} tồn tại rồi chờ ONLINE. Nếu lượt này không ghi batch nào (mọi dòng không
+   * đổi) mà index chưa có, số chiều lấy từ một vector đã có trong DB.
+   */
+  static void awaitIndexes(Session s, VectorIndexManager.Version version, boolean created) throws InterruptedException {
+    if (!created) {
+      var rs = s.run("MATCH (n:QA) WHERE n.%1$s IS NOT NULL RETURN size(n.%1$s) AS dim LIMIT 1"
+          .formatted(version.property()));
+      if (!rs.hasNext()) return;
+      VectorIndexManager.ensureIndexes(s, version, rs.next().get("dim").asInt(), vectorSimilarity(), true);
+    }
+    Duration timeout = Duration.ofSeconds(Long.parseLong(System.getenv().getOrDefault("INDEX_ONLINE_TIMEOUT_SECS", "3600")));
+    VectorIndexManager.awaitOnline(s, version.qaIndex(), timeout);
+    VectorIndexManager.awaitOnline(s, version.chunkIndex(), timeout);
+  }
 }
\ No newline at end of file
@@ -0,0 +1,96 @@
+package ai.nlp.service;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram độ trễ dạng log (8 bucket con cho mỗi luỹ thừa 2, sai số tương đối ≤ 12.5%), đơn vị micro giây.
+ * Ghi từ nhiều thread không cần khoá; percentile đọc trên snapshot gần đúng (đủ cho báo cáo định kỳ).
+ */
+final class LatencyHistogram {
+  private static final int SUB_BITS = 3;
+  private static final int SUB = 1 << SUB_BITS;
+
+  private final AtomicLongArray counts = new AtomicLongArray(64 * SUB);
+  private final LongAdder count = new LongAdder();
+  private final LongAdder sumMicros = new LongAdder();
+  private final AtomicLong maxMicros = new AtomicLong();
+
+  void record(long nanos) {
+    long us = Math.max(1, nanos / 1000);
+    counts.incrementAndGet(index(us));
+    count.increment();
+    sumMicros.add(us);
+    maxMicros.accumulateAndGet(us, Math::max);
+  }
+
+  long count() {
+    return count.sum();
+  }
+
+  double meanMillis() {
+    long n = count.sum();
+    return n == 0 ? 0 : sumMicros.sum() / 1000.0 / n;
+  }
+
+  double maxMillis() {
+    return maxMicros.get() / 1000.0;
+  }
+
+  /**
+   * Percentile {@code p} (0..1) tính bằng ms: cận trên của bucket chứa mẫu thứ {@code ceil(p × count)}.
+   */
+  double percentileMillis(double p) {
+    long n = count.sum();
+    if (n == 0) return 0;
+    long rank = Math.max(1, (long) Math.ceil(p * n));
+    long seen = 0;
+    for (int i = 0; i < counts.length(); i++) {
+      seen += counts.get(i);
+      if (seen >= rank) return Math.min(lowerBound(i + 1) - 1, maxMicros.get()) / 1000.0;
+    }
+    return maxMillis();
+  }
+
+  /**
+   * {@code n=…, p50=…ms p95=…ms p99=…ms max=…ms}.
+   */
+  String summary() {
+    return String.format("n=%d p50=%.1fms p95=%.1fms p99=%.1fms max=%.1fms", count(),
+        percentileMillis(0.50), percentileMillis(0.95), percentileMillis(0.99), maxMillis());
+  }
+
+  /**
+   * Dạng cho JSON summary (ms).
+   */
+  Map<String, Object> toMap() {
+    Map<String, Object> m = new LinkedHashMap<>();
+    m.put("count", count());
+    m.put("meanMs", round(meanMillis()));
+    m.put("p50Ms", round(percentileMillis(0.50)));
+    m.put("p95Ms", round(percentileMillis(0.95)));
+    m.put("p99Ms", round(percentileMillis(0.99)));
+    m.put("maxMs", round(maxMillis()));
+    return m;
+  }
+
+  private static double round(double ms) {
+    return Math.round(ms * 1000) / 1000.0;
+  }
+
+  private static int index(long v) {
+    if (v < SUB) return (int) v;
+    int exp = 63 - Long.numberOfLeadingZeros(v);
+    int sub = (int) ((v >>> (exp - SUB_BITS)) & (SUB - 1));
+    return (exp - SUB_BITS + 1) * SUB + sub;
+  }
+
+  private static long lowerBound(int idx) {
+    if (idx < SUB) return idx;
+    int exp = idx / SUB + SUB_BITS - 1;
+    return (long) (SUB + idx % SUB) << (exp - SUB_BITS);
+  }
+}
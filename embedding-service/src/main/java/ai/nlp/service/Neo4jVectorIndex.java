@@ -0,0 +1,86 @@
+package ai.nlp.service;
+
+import org.neo4j.driver.Driver;
+import org.neo4j.driver.Session;
+import org.neo4j.driver.SessionConfig;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.neo4j.driver.Values.parameters;
+
+/**
+ * {@link VectorIndex} trên vector index của Neo4j ({@code db.index.vector.queryNodes}).
+ * <p>
+ * Nếu có index chunk (câu trả lời dài được IngestQA cắt thành :QAChunk), truy vấn cả hai index rồi gộp hit
+ * của chunk về QA cha, lấy điểm cao nhất cho mỗi QA. Cả hai tên index lấy từ cùng một
+ * {@link VectorIndexManager.Active}, nên không bao giờ trộn hai version. Driver thuộc về caller.
+ */
+final class Neo4jVectorIndex implements VectorIndex {
+  private static final long INDEX_REFRESH_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+  private final Driver driver;
+  private final String db;
+  // cặp index đang phục vụ, đọc lại định kỳ để thấy VectorIndexManager.activate mà không cần restart
+  private volatile VectorIndexManager.Active activeIndex;
+  private volatile long activeIndexAt;
+
+  Neo4jVectorIndex(Driver driver, String db) {
+    this.driver = driver;
+    this.db = db;
+  }
+
+  @Override
+  public List<Hit> topK(float[] query, int k) {
+    List<Hit> out = new ArrayList<>();
+    try (Session s = driver.session(SessionConfig.forDatabase(db))) {
+      VectorIndexManager.Active idx = activeIndex(s);
+      String cypher = idx.chunkIndex() != null ? """
+          CALL {
+            CALL db.index.vector.queryNodes($index, $k, $qemb) YIELD node, score
+            RETURN node AS qa, score
+            UNION ALL
+            CALL db.index.vector.queryNodes($chunkIndex, $k, $qemb) YIELD node, score
+            MATCH (qa:QA)-[:HAS_CHUNK]->(node)
+            RETURN qa, score
+          }
+          WITH qa, max(score) AS score
+          RETURN qa.id AS id, qa.question AS q, qa.answer AS a, score
+          ORDER BY score DESC LIMIT $k
+          """ : """
+          WITH $qemb AS qemb
+          CALL db.index.vector.queryNodes($index, $k, qemb)
+          YIELD node, score
+          RETURN node.id AS id, node.question AS q, node.answer AS a, score
+          ORDER BY score DESC
+          """;
+      var rs = s.run(cypher, parameters("qemb", query, "k", k, "index", idx.qaIndex(), "chunkIndex", idx.chunkIndex()));
+      while (rs.hasNext()) {
+        var r = rs.next();
+        out.add(new Hit(
+            r.get("id").asString(),
+            r.get("q").asString(),
+            r.get("a").asString(),
+            r.get("score").asDouble()
+        ));
+      }
+    }
+    return out;
+  }
+
+  @Override
+  public void close() {
+  }
+
+  private VectorIndexManager.Active activeIndex(Session s) {
+    VectorIndexManager.Active a = activeIndex;
+    long now = System.nanoTime();
+    if (a == null || now - activeIndexAt > INDEX_REFRESH_NANOS) {
+      a = VectorIndexManager.resolve(s);
+      activeIndex = a;
+      activeIndexAt = now;
+    }
+    return a;
+  }
+}
@@ -0,0 +1,263 @@
+package ai.nlp.service;
+
+import org.neo4j.driver.Config;
+import org.neo4j.driver.Driver;
+import org.neo4j.driver.Session;
+import org.neo4j.driver.SessionConfig;
+import org.neo4j.driver.TransactionContext;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Tầng ghi Neo4j của {@link IngestPipeline}: chia batch theo hash của khoá (id) cho {@code partitions} session
+ * chạy song song, rồi cắt mỗi phần thành transaction có kích thước tự điều chỉnh.
+ * <p>
+ * - Mỗi khoá luôn về cùng một partition, nên các writer không tranh khoá trên cùng node (:QA và :QAChunk
+ *   của nó đi chung một transaction).
+ * - {@link BatchSizer} chọn số dòng mỗi transaction từ độ trễ commit đo được (mục tiêu
+ *   {@code INGEST_TX_TARGET_MS}) và kích thước payload ước lượng (trần {@code INGEST_TX_MAX_MB}).
+ * - Lỗi tạm thời (deadlock, đổi leader, mất kết nối) được driver retry với backoff luỹ thừa có jitter trong
+ *   {@code executeWrite}, tối đa {@code NEO4J_TX_RETRY_SECS} (cấu hình trên Driver, xem {@link #driverConfig});
+ *   lần retry được đếm và làm batch size giảm một nửa.
+ * <p>
+ * Reader nên cắt batch theo {@link #batchRows()} (= batch size × số partition) để mỗi partition commit đúng
+ * một transaction cỡ mục tiêu. {@link #write} chỉ trả về khi mọi transaction của batch đã commit, nên checkpoint
+ * ở {@link IngestPipeline} vẫn đúng. Chỉ một thread (writer của pipeline) gọi {@link #write}.
+ */
+final class Neo4jWriter implements IngestPipeline.Sink, AutoCloseable {
+
+  /**
+   * Câu lệnh UNWIND chạy trong một transaction với một lát dòng.
+   */
+  @FunctionalInterface
+  interface Statement {
+    void run(TransactionContext tx, List<Map<String, Object>> rows);
+  }
+
+  private final Statement statement;
+  private final Function<Map<String, Object>, Object> key;
+  private final List<Session> sessions = new ArrayList<>();
+  private final ExecutorService pool;
+  private final BatchSizer sizer;
+  private IngestPipeline.Sink beforeFirst;
+
+  final LatencyHistogram commitLatency = new LatencyHistogram();
+  private final LongAdder commits = new LongAdder();
+  private final LongAdder retries = new LongAdder();
+
+  Neo4jWriter(Driver driver, String db, Statement statement, Function<Map<String, Object>, Object> key,
+              int partitions, BatchSizer sizer) {
+    this.statement = statement;
+    this.key = key;
+    this.sizer = sizer;
+    int n = Math.max(1, partitions);
+    for (int i = 0; i < n; i++) sessions.add(driver.session(SessionConfig.forDatabase(db)));
+    AtomicInteger seq = new AtomicInteger();
+    this.pool = n == 1 ? null : Executors.newFixedThreadPool(n, r -> {
+      Thread t = new Thread(r, "neo4j-writer-" + seq.getAndIncrement());
+      t.setDaemon(true);
+      return t;
+    });
+  }
+
+  /**
+   * Partition theo {@code row.id}; số writer và tham số batch đọc từ env.
+   */
+  static Neo4jWriter fromEnv(Driver driver, String db, Statement statement) {
+    Map<String, String> env = System.getenv();
+    return new Neo4jWriter(driver, db, statement, row -> row.get("id"),
+        Integer.parseInt(env.getOrDefault("INGEST_WRITERS", "2")),
+        BatchSizer.fromEnv());
+  }
+
+  /**
+   * Cấu hình driver cho ingest: thời gian retry transaction tạm thời ({@code NEO4J_TX_RETRY_SECS}, mặc định 60s).
+   */
+  static Config driverConfig() {
+    long secs = Long.parseLong(System.getenv().getOrDefault("NEO4J_TX_RETRY_SECS", "60"));
+    return Config.builder()
+        .withMaxTransactionRetryTime(secs, TimeUnit.SECONDS)
+        .build();
+  }
+
+  /**
+   * Việc chạy một lần trước batch đầu tiên, ngoài transaction dữ liệu (ví dụ tạo index: Neo4j không cho
+   * trộn thay đổi schema và dữ liệu trong một transaction).
+   */
+  Neo4jWriter beforeFirstWrite(IngestPipeline.Sink hook) {
+    this.beforeFirst = hook;
+    return this;
+  }
+
+  /**
+   * Số dòng reader nên gom cho batch kế tiếp.
+   */
+  int batchRows() {
+    return sizer.current() * sessions.size();
+  }
+
+  @Override
+  public void write(List<Map<String, Object>> rows) throws Exception {
+    if (beforeFirst != null && !rows.isEmpty()) {
+      IngestPipeline.Sink hook = beforeFirst;
+      beforeFirst = null;
+      hook.write(rows);
+    }
+    int n = sessions.size();
+    if (n == 1) {
+      writePartition(sessions.get(0), rows);
+      return;
+    }
+    List<List<Map<String, Object>>> parts = new ArrayList<>(n);
+    for (int i = 0; i < n; i++) parts.add(new ArrayList<>());
+    for (Map<String, Object> row : rows) parts.get(Math.floorMod(key.apply(row).hashCode(), n)).add(row);
+
+    List<Future<?>> futures = new ArrayList<>(n);
+    for (int i = 0; i < n; i++) {
+      if (parts.get(i).isEmpty()) continue;
+      Session s = sessions.get(i);
+      List<Map<String, Object>> part = parts.get(i);
+      futures.add(pool.submit(() -> {
+        writePartition(s, part);
+        return null;
+      }));
+    }
+    awaitAll(futures);
+  }
+
+  private void writePartition(Session s, List<Map<String, Object>> rows) {
+    for (int from = 0; from < rows.size(); ) {
+      int to = Math.min(rows.size(), from + sizer.current());
+      List<Map<String, Object>> slice = rows.subList(from, to);
+      int[] attempts = {0};
+      long t0 = System.nanoTime();
+      s.executeWrite(tx -> {
+        attempts[0]++;
+        statement.run(tx, slice);
+        return null;
+      });
+      long nanos = System.nanoTime() - t0;
+      commitLatency.record(nanos);
+      commits.increment();
+      if (attempts[0] > 1) retries.add(attempts[0] - 1);
+      sizer.observe(slice.size(), payloadBytes(slice), nanos, attempts[0] > 1);
+      from = to;
+    }
+  }
+
+  @Override
+  public String stats() {
+    return String.format("commits=%d retries=%d tx=%d rows | commit %s",
+        commits.sum(), retries.sum(), sizer.current(), commitLatency.summary());
+  }
+
+  @Override
+  public Map<String, Object> metrics() {
+    Map<String, Object> m = new LinkedHashMap<>();
+    m.put("partitions", sessions.size());
+    m.put("commits", commits.sum());
+    m.put("retries", retries.sum());
+    m.put("txRows", sizer.current());
+    m.put("commitLatency", commitLatency.toMap());
+    return m;
+  }
+
+  @Override
+  public void close() {
+    if (pool != null) pool.shutdownNow();
+    for (Session s : sessions) s.close();
+  }
+
+  private static void awaitAll(Collection<Future<?>> futures) throws Exception {
+    Exception first = null;
+    for (Future<?> f : futures) {
+      try {
+        f.get();
+      } catch (ExecutionException e) {
+        if (first == null) first = e.getCause() instanceof Exception c ? c : e;
+      }
+    }
+    if (first != null) throw first;
+  }
+
+  /**
+   * Ước lượng kích thước payload Bolt: chuỗi ~ UTF-8 (tiếng Việt ~1.5 byte/ký tự), float[] 4 byte/phần tử.
+   */
+  static long payloadBytes(Object v) {
+    if (v == null) return 1;
+    if (v instanceof String s) return s.length() * 3L / 2 + 4;
+    if (v instanceof float[] f) return f.length * 4L + 4;
+    if (v instanceof Map<?, ?> m) {
+      long b = 4;
+      for (Map.Entry<?, ?> e : m.entrySet()) b += payloadBytes(e.getKey()) + payloadBytes(e.getValue());
+      return b;
+    }
+    if (v instanceof Collection<?> c) {
+      long b = 4;
+      for (Object o : c) b += payloadBytes(o);
+      return b;
+    }
+    return 9;
+  }
+
+  /**
+   * Số dòng mỗi transaction, điều chỉnh sau mỗi commit:
+   * mục tiêu = min(targetLatency / độ trễ mỗi dòng, maxBytes / byte mỗi dòng), làm mượt (tăng tối đa ×2 mỗi
+   * bước), giảm một nửa khi transaction phải retry. Nhiều partition cùng cập nhật nên các hàm đều synchronized.
+   */
+  static final class BatchSizer {
+    private final int min;
+    private final int max;
+    private final long targetNanos;
+    private final long maxBytes;
+    private int size;
+
+    BatchSizer(int initial, int min, int max, long targetNanos, long maxBytes) {
+      this.min = Math.max(1, min);
+      this.max = Math.max(this.min, max);
+      this.targetNanos = targetNanos;
+      this.maxBytes = maxBytes;
+      this.size = Math.min(this.max, Math.max(this.min, initial));
+    }
+
+    static BatchSizer fromEnv() {
+      Map<String, String> env = System.getenv();
+      return new BatchSizer(
+          Integer.parseInt(env.getOrDefault("INGEST_TX_ROWS", "500")),
+          Integer.parseInt(env.getOrDefault("INGEST_TX_MIN_ROWS", "50")),
+          Integer.parseInt(env.getOrDefault("INGEST_TX_MAX_ROWS", "5000")),
+          Long.parseLong(env.getOrDefault("INGEST_TX_TARGET_MS", "1000")) * 1_000_000L,
+          Long.parseLong(env.getOrDefault("INGEST_TX_MAX_MB", "16")) << 20);
+    }
+
+    synchronized int current() {
+      return size;
+    }
+
+    synchronized void observe(int rows, long bytes, long nanos, boolean retried) {
+      if (rows == 0) return;
+      if (retried) {
+        size = Math.max(min, size / 2);
+        return;
+      }
+      double byLatency = (double) targetNanos * rows / Math.max(1, nanos);
+      double byBytes = (double) maxBytes * rows / Math.max(1, bytes);
+      int goal = (int) Math.min(byLatency, byBytes);
+      // lát quá nhỏ (cuối file, partition lệch) bị chi phối bởi overhead cố định của commit: bỏ qua
+      if (rows < size / 2) return;
+      size = Math.min(max, Math.max(min, Math.min(goal, size * 2)));
+    }
+  }
+}
@@ -0,0 +1,307 @@
+package ai.nlp.service;
+
+import ai.djl.huggingface.tokenizers.Encoding;
+import ai.djl.huggingface.tokenizers.HuggingFaceTokenizer;
+import ai.onnxruntime.OnnxTensor;
+import ai.onnxruntime.OnnxValue;
+import ai.onnxruntime.OrtEnvironment;
+import ai.onnxruntime.OrtException;
+import ai.onnxruntime.OrtSession;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.FloatBuffer;
+import java.nio.LongBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Embedding E5 chạy trong JVM bằng ONNX Runtime (CPU), không qua TEI.
+ * <p>
+ * Thư mục model là kết quả export chuẩn, ví dụ
+ * {@code optimum-cli export onnx --model intfloat/multilingual-e5-base --task feature-extraction e5-onnx/}:
+ * cần {@code model.onnx} và {@code tokenizer.json}. Pipeline giống TEI: tokenize (cắt ở {@code maxLength}),
+ * {@code last_hidden_state}, mean pooling theo attention mask, chuẩn hoá L2.
+ * <p>
+ * Batch được sắp theo số token trước khi chạy để giảm padding. Các lời gọi async chạy tuần tự trên một
+ * thread riêng; song song hoá nằm trong ONNX Runtime ({@code intraOpThreads}).
+ * <p>
+ * Tokenize, pooling và chuẩn hoá được kiểm tra trong {@code OnnxEmbedderTest} (chạy khi có {@code ONNX_MODEL_DIR}).
+ * Ngoài test, lệnh {@code parity} so nhanh với một TEI đang chạy.
+ * <p>
+ * Run (so với TEI trên vài câu cố định, cosine từng câu phải &gt; ngưỡng, mặc định 0.99; thoát mã 1 nếu không):
+ * ONNX_MODEL_DIR=e5-onnx TEI_URL=http://localhost:8080/embeddings java ai.nlp.service.OnnxEmbedder parity [minCosine]
+ */
+public final class OnnxEmbedder implements Embedder {
+
+  /**
+   * @param maxBatch       số text tối đa mỗi lần chạy model
+   * @param maxLength      số token tối đa mỗi text (E5: 512)
+   * @param intraOpThreads số thread ONNX Runtime dùng cho một lần chạy
+   * @param queryCacheSize như {@link EmbeddingClient.Options#queryCacheSize}
+   * @param projection     như {@link EmbeddingClient.Options#projection}
+   */
+  public record Options(int maxBatch, int maxLength, int intraOpThreads, int queryCacheSize,
+                        EmbeddingProjection projection) {
+    public static Options fromEnv() {
+      Map<String, String> env = System.getenv();
+      EmbeddingProjection projection;
+      try {
+        projection = EmbeddingProjection.parse(env.get("EMBED_PROJECTION"));
+      } catch (IOException e) {
+        throw new UncheckedIOException("Cannot load EMBED_PROJECTION=" + env.get("EMBED_PROJECTION"), e);
+      }
+      return new Options(
+          Integer.parseInt(env.getOrDefault("ONNX_MAX_BATCH", "16")),
+          Integer.parseInt(env.getOrDefault("ONNX_MAX_LENGTH", "512")),
+          Integer.parseInt(env.getOrDefault("ONNX_THREADS", String.valueOf(Runtime.getRuntime().availableProcessors()))),
+          Integer.parseInt(env.getOrDefault("TEI_QUERY_CACHE_SIZE", "4096")),
+          projection);
+    }
+  }
+
+  private final OrtEnvironment env;
+  private final OrtSession session;
+  private final HuggingFaceTokenizer tokenizer;
+  private final boolean needsTypeIds;
+  private final String outputName;
+  private final int maxBatch;
+  private final EmbeddingProjection projection;
+  private final QueryEmbeddingCache queryCache;
+  private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+    Thread t = new Thread(r, "onnx-embedder");
+    t.setDaemon(true);
+    return t;
+  });
+
+  private OnnxEmbedder(OrtEnvironment env, OrtSession session, HuggingFaceTokenizer tokenizer, Options opts) {
+    this.env = env;
+    this.session = session;
+    this.tokenizer = tokenizer;
+    this.needsTypeIds = session.getInputNames().contains("token_type_ids");
+    this.outputName = session.getOutputNames().contains("last_hidden_state")
+        ? "last_hidden_state"
+        : session.getOutputNames().iterator().next();
+    this.maxBatch = Math.max(1, opts.maxBatch());
+    this.projection = opts.projection();
+    this.queryCache = opts.queryCacheSize() >= 2 ? new QueryEmbeddingCache(opts.queryCacheSize()) : null;
+  }
+
+  public static OnnxEmbedder open(Path modelDir, Options opts) throws IOException {
+    Path model = modelDir.resolve("model.onnx");
+    Path tok = modelDir.resolve("tokenizer.json");
+    if (!Files.isRegularFile(model)) throw new IOException("Missing " + model);
+    if (!Files.isRegularFile(tok)) throw new IOException("Missing " + tok);
+
+    HuggingFaceTokenizer tokenizer = HuggingFaceTokenizer.builder()
+        .optTokenizerPath(tok)
+        .optMaxLength(opts.maxLength())
+        .optTruncation(true)
+        .optPadding(false) // tự pad theo từng batch đã sắp
+        .build();
+    try {
+      OrtEnvironment env = OrtEnvironment.getEnvironment();
+      OrtSession.SessionOptions so = new OrtSession.SessionOptions();
+      so.setOptimizationLevel(OrtSession.SessionOptions.OptLevel.ALL_OPT);
+      so.setIntraOpNumThreads(Math.max(1, opts.intraOpThreads()));
+      return new OnnxEmbedder(env, env.createSession(model.toString(), so), tokenizer, opts);
+    } catch (OrtException e) {
+      tokenizer.close();
+      throw new IOException("Cannot create ONNX session for " + model, e);
+    }
+  }
+
+  @Override
+  public float[] embedE5(String text, boolean isQuery) throws IOException {
+    if (isQuery && queryCache != null) {
+      return queryCache.get(text, t -> embedBatchE5(List.of(t), true)[0]);
+    }
+    return embedBatchE5(List.of(text), isQuery)[0];
+  }
+
+  @Override
+  public float[][] embedBatchE5(List<String> texts, boolean isQuery) throws IOException {
+    List<String> prefixed = new ArrayList<>(texts.size());
+    for (String t : texts) prefixed.add((isQuery ? "query: " : "passage: ") + t);
+    Encoding[] enc = tokenizer.batchEncode(prefixed);
+
+    Integer[] order = new Integer[enc.length];
+    for (int i = 0; i < order.length; i++) order[i] = i;
+    Arrays.sort(order, Comparator.comparingInt(i -> enc[i].getIds().length));
+
+    float[][] out = new float[enc.length][];
+    for (int from = 0; from < order.length; from += maxBatch) {
+      int to = Math.min(order.length, from + maxBatch);
+      Encoding[] part = new Encoding[to - from];
+      for (int j = from; j < to; j++) part[j - from] = enc[order[j]];
+      float[][] v = run(part);
+      for (int j = from; j < to; j++) {
+        float[] e = v[j - from];
+        out[order[j]] = projection == null ? e : projection.apply(e);
+      }
+    }
+    return out;
+  }
+
+  @Override
+  public CompletableFuture<float[]> embedAsync(String text, boolean isQuery) {
+    return submit(() -> embedE5(text, isQuery));
+  }
+
+  @Override
+  public CompletableFuture<float[][]> embedBatchAsync(List<String> texts, boolean isQuery) {
+    return submit(() -> embedBatchE5(texts, isQuery));
+  }
+
+  public QueryEmbeddingCache.Stats queryCacheStats() {
+    return queryCache == null ? null : queryCache.stats();
+  }
+
+  @Override
+  public void close() throws IOException {
+    executor.shutdown();
+    try {
+      executor.awaitTermination(30, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while closing ONNX embedder");
+    }
+    try {
+      session.close();
+    } catch (OrtException e) {
+      throw new IOException(e);
+    } finally {
+      tokenizer.close();
+    }
+  }
+
+  /**
+   * Câu mẫu cho {@code parity}: tiếng Việt có dấu, tiếng Anh, câu ngắn và một câu dài hơn 512 token (kiểm tra
+   * cả cách cắt cụt).
+   */
+  private static final List<String> PARITY_TEXTS = List.of(
+      "Làm thế nào để đổi mật khẩu tài khoản?",
+      "Gói cước data 4G hết hạn thì có tự động gia hạn không?",
+      "How do I reset my password?",
+      "ok",
+      "Hướng dẫn chi tiết các bước đăng ký dịch vụ, kiểm tra cước phí và huỷ gói. ".repeat(60));
+
+  public static void main(String[] args) throws Exception {
+    String cmd = args.length > 0 ? args[0] : "parity";
+    if (!cmd.equals("parity")) throw new IllegalArgumentException("Usage: parity [minCosine]");
+    double min = args.length > 1 ? Double.parseDouble(args[1]) : 0.99;
+    String dir = System.getenv("ONNX_MODEL_DIR");
+    if (dir == null) throw new IllegalStateException("parity requires ONNX_MODEL_DIR");
+    String teiUrl = System.getenv().getOrDefault("TEI_URL", "http://localhost:8080/embeddings");
+
+    double worst = 1;
+    try (OnnxEmbedder onnx = open(Path.of(dir), Options.fromEnv());
+         EmbeddingClient tei = new EmbeddingClient(teiUrl)) {
+      for (boolean isQuery : new boolean[]{true, false}) {
+        float[][] a = onnx.embedBatchE5(PARITY_TEXTS, isQuery);
+        float[][] b = tei.embedBatchE5(PARITY_TEXTS, isQuery);
+        for (int i = 0; i < a.length; i++) {
+          double cos = cosine(a[i], b[i]);
+          worst = Math.min(worst, cos);
+          String t = PARITY_TEXTS.get(i);
+          System.out.printf("%s cos=%.5f %s %s%n", cos > min ? "✅" : "❌", cos, isQuery ? "query  " : "passage",
+              t.length() > 50 ? t.substring(0, 50) + "…" : t);
+        }
+      }
+    }
+    System.out.printf("min cosine %.5f (ngưỡng %.2f)%n", worst, min);
+    if (worst <= min) System.exit(1);
+  }
+
+  private static double cosine(float[] a, float[] b) {
+    if (a.length != b.length) throw new IllegalStateException("Dim khác nhau: " + a.length + " != " + b.length);
+    double dot = 0, na = 0, nb = 0;
+    for (int i = 0; i < a.length; i++) {
+      dot += (double) a[i] * b[i];
+      na += (double) a[i] * a[i];
+      nb += (double) b[i] * b[i];
+    }
+    return dot / Math.sqrt(na * nb);
+  }
+
+  // ---- internals ----
+
+  @FunctionalInterface
+  private interface Task<T> {
+    T call() throws IOException;
+  }
+
+  private <T> CompletableFuture<T> submit(Task<T> task) {
+    return CompletableFuture.supplyAsync(() -> {
+      try {
+        return task.call();
+      } catch (IOException e) {
+        throw new CompletionException(e);
+      }
+    }, executor);
+  }
+
+  /**
+   * Một lần chạy model: pad về độ dài dài nhất trong batch, mean pooling trên các token có mask = 1.
+   */
+  private float[][] run(Encoding[] batch) throws IOException {
+    int b = batch.length, len = 0;
+    for (Encoding e : batch) len = Math.max(len, e.getIds().length);
+    long[] ids = new long[b * len], mask = new long[b * len], types = new long[b * len];
+    for (int i = 0; i < b; i++) {
+      long[] id = batch[i].getIds(), m = batch[i].getAttentionMask(), t = batch[i].getTypeIds();
+      System.arraycopy(id, 0, ids, i * len, id.length);
+      System.arraycopy(m, 0, mask, i * len, m.length);
+      System.arraycopy(t, 0, types, i * len, t.length);
+    }
+    long[] shape = {b, len};
+
+    Map<String, OnnxTensor> feeds = new HashMap<>();
+    try {
+      feeds.put("input_ids", OnnxTensor.createTensor(env, LongBuffer.wrap(ids), shape));
+      feeds.put("attention_mask", OnnxTensor.createTensor(env, LongBuffer.wrap(mask), shape));
+      if (needsTypeIds) feeds.put("token_type_ids", OnnxTensor.createTensor(env, LongBuffer.wrap(types), shape));
+
+      try (OrtSession.Result res = session.run(feeds)) {
+        OnnxValue v = res.get(outputName).orElseThrow(() -> new IOException("ONNX model has no output " + outputName));
+        OnnxTensor hidden = (OnnxTensor) v;
+        long[] hs = hidden.getInfo().getShape(); // [b, len, dim]
+        int dim = (int) hs[2];
+        FloatBuffer fb = hidden.getFloatBuffer();
+
+        float[][] out = new float[b][dim];
+        for (int i = 0; i < b; i++) {
+          float[] acc = out[i];
+          int count = 0;
+          for (int t = 0; t < len; t++) {
+            if (mask[i * len + t] == 0) continue;
+            int base = (i * len + t) * dim;
+            for (int d = 0; d < dim; d++) acc[d] += fb.get(base + d);
+            count++;
+          }
+          if (count > 0) {
+            for (int d = 0; d < dim; d++) acc[d] /= count;
+          }
+          EmbeddingProjection.normalize(acc);
+        }
+        return out;
+      }
+    } catch (OrtException e) {
+      throw new IOException("ONNX inference failed", e);
+    } finally {
+      for (OnnxTensor t : feeds.values()) t.close();
+    }
+  }
+}
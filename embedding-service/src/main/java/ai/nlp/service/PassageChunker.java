@@ -0,0 +1,146 @@
+package ai.nlp.service;
+
+import ai.djl.huggingface.tokenizers.HuggingFaceTokenizer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.ToIntFunction;
+import java.util.regex.Pattern;
+
+/**
+ * Cắt câu trả lời dài thành nhiều chunk theo ranh giới câu, sao cho mỗi passage
+ * "question + chunk" nằm trong ngân sách token của model (TEI sẽ cắt cụt phần vượt quá max length).
+ * <p>
+ * Token được đếm bằng tokenizer thật của model ({@code tokenizer.json} từ {@code CHUNK_TOKENIZER}, hoặc của
+ * {@code ONNX_MODEL_DIR}). Tokenizer SentencePiece của multilingual-e5 / XLM-R sinh nhiều token hơn hẳn
+ * WordPiece với tiếng Việt, nên ước lượng theo số ký tự dễ vượt 512. Không có tokenizer thì dùng
+ * {@link #estimateTokens} (thận trọng, ~2 ký tự/token) kèm cảnh báo. Câu đơn lẻ dài hơn ngân sách được cắt theo từ.
+ */
+public final class PassageChunker implements Closeable {
+  private static final Pattern SENTENCE_END = Pattern.compile("(?<=[.!?。])\\s+|\\n+");
+  private static final Pattern WS = Pattern.compile("\\s+");
+  private static final int MIN_ANSWER_TOKENS = 64;
+
+  private final int maxTokens;
+  private final ToIntFunction<String> tokens;
+  private final HuggingFaceTokenizer tokenizer;
+
+  public PassageChunker(int maxTokens) {
+    this(maxTokens, PassageChunker::estimateTokens, null);
+  }
+
+  private PassageChunker(int maxTokens, ToIntFunction<String> tokens, HuggingFaceTokenizer tokenizer) {
+    this.maxTokens = maxTokens;
+    this.tokens = tokens;
+    this.tokenizer = tokenizer;
+  }
+
+  /**
+   * Đếm token bằng {@code tokenizer.json} của model (kể cả token đặc biệt, không cắt cụt).
+   */
+  public static PassageChunker withTokenizer(int maxTokens, Path tokenizerJson) throws IOException {
+    HuggingFaceTokenizer tok = HuggingFaceTokenizer.builder()
+        .optTokenizerPath(tokenizerJson)
+        .optAddSpecialTokens(true)
+        .optTruncation(false)
+        .optPadding(false)
+        .build();
+    return new PassageChunker(maxTokens, s -> tok.encode(s).getIds().length, tok);
+  }
+
+  public static PassageChunker fromEnv() {
+    int maxTokens = Integer.parseInt(System.getenv().getOrDefault("CHUNK_MAX_TOKENS", "448"));
+    Path tok = tokenizerPath();
+    if (tok == null) {
+      System.err.println("⚠️ Không có CHUNK_TOKENIZER: số token chỉ được ước lượng, passage vẫn có thể bị TEI cắt cụt");
+      return new PassageChunker(maxTokens);
+    }
+    try {
+      return withTokenizer(maxTokens, tok);
+    } catch (IOException e) {
+      throw new UncheckedIOException("Cannot load CHUNK_TOKENIZER=" + tok, e);
+    }
+  }
+
+  /**
+   * {@code CHUNK_TOKENIZER}, hoặc {@code ONNX_MODEL_DIR/tokenizer.json} nếu có; null nếu không có cả hai.
+   */
+  static Path tokenizerPath() {
+    String env = System.getenv("CHUNK_TOKENIZER");
+    if (env != null && !env.isBlank()) return Path.of(env);
+    String dir = System.getenv("ONNX_MODEL_DIR");
+    if (dir == null) return null;
+    Path p = Path.of(dir).resolve("tokenizer.json");
+    return Files.isRegularFile(p) ? p : null;
+  }
+
+  /**
+   * Cách đếm token, đưa vào chữ ký embedding: đổi cách đếm thì cách cắt chunk đổi theo.
+   */
+  static String signature() {
+    return tokenizerPath() == null ? "est2" : "tok";
+  }
+
+  /**
+   * Ước lượng thận trọng khi không có tokenizer: ~2 ký tự/token (tính theo code point) + token đặc biệt.
+   * Với chữ Latin có dấu (tiếng Việt) thường dư; với chữ CJK/Thái vẫn có thể thiếu.
+   */
+  static int estimateTokens(String s) {
+    return s.codePointCount(0, s.length()) / 2 + 2; // + <s>, </s>
+  }
+
+  /**
+   * Các passage để embed cho một cặp Q/A (chưa có prefix "passage: ").
+   * Trả đúng một phần tử {@code q + " " + a} nếu vừa ngân sách.
+   */
+  public List<String> chunk(String q, String a) {
+    String whole = q + " " + a;
+    if (tokens.applyAsInt("passage: " + whole) <= maxTokens) return List.of(whole);
+
+    // mỗi chunk mang theo câu hỏi để giữ ngữ cảnh truy vấn
+    int budget = Math.max(MIN_ANSWER_TOKENS, maxTokens - tokens.applyAsInt("passage: " + q + " "));
+    List<String> out = new ArrayList<>();
+    StringBuilder cur = new StringBuilder();
+    for (String sentence : SENTENCE_END.split(a.trim())) {
+      for (String piece : fit(sentence, budget)) {
+        if (cur.length() > 0 && tokens.applyAsInt(cur + " " + piece) > budget) {
+          out.add(q + " " + cur);
+          cur.setLength(0);
+        }
+        if (cur.length() > 0) cur.append(' ');
+        cur.append(piece);
+      }
+    }
+    if (cur.length() > 0) out.add(q + " " + cur);
+    return out;
+  }
+
+  @Override
+  public void close() {
+    if (tokenizer != null) tokenizer.close();
+  }
+
+  /**
+   * Câu vừa ngân sách thì giữ nguyên, không thì cắt theo từ.
+   */
+  private List<String> fit(String sentence, int budget) {
+    if (tokens.applyAsInt(sentence) <= budget) return List.of(sentence);
+    List<String> pieces = new ArrayList<>();
+    StringBuilder cur = new StringBuilder();
+    for (String w : WS.split(sentence)) {
+      if (cur.length() > 0 && tokens.applyAsInt(cur + " " + w) > budget) {
+        pieces.add(cur.toString());
+        cur.setLength(0);
+      }
+      if (cur.length() > 0) cur.append(' ');
+      cur.append(w);
+    }
+    if (cur.length() > 0) pieces.add(cur.toString());
+    return pieces;
+  }
+}
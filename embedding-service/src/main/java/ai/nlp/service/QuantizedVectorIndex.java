@@ -0,0 +1,227 @@
+package ai.nlp.service;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+import org.neo4j.driver.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * {@link VectorIndex} trên mã int8 lượng tử hoá vô hướng theo từng chiều, chấm lại bằng float.
+ * <p>
+ * Mỗi chiều d có [min_d, max_d] lấy từ corpus; x_d được mã hoá thành 256 mức
+ * {@code code = round((x_d - min_d) / scale_d) - 128}, {@code scale_d = (max_d - min_d) / 255}. Khi đó
+ * <pre>
+ *   q·x̂ = Σ q_d·min_d + 128·Σ q_d·scale_d + Σ (q_d·scale_d)·code_d
+ * </pre>
+ * hai số hạng đầu chỉ phụ thuộc truy vấn, nên lượt một xếp hạng mọi dòng bằng {@code Σ (q_d·scale_d)·code_d}
+ * (1 byte/chiều, SIMD khi có {@code jdk.incubator.vector} và vector CPU từ 256 bit, ngược lại vòng vô hướng;
+ * song song như {@link ExactVectorIndex}). Lấy {@code k × QUANT_OVERSAMPLE} (mặc định 4)
+ * ứng viên — nới theo số chunk tối đa của một QA như quét chính xác — rồi chấm lại bằng vector float gốc.
+ * <p>
+ * Mã int8 nằm off-heap (n×dim byte, 1/4 so với float). Vector float chỉ cần cho vài trăm ứng viên mỗi truy
+ * vấn nên được ghi ra file tạm và map chỉ đọc: OS chỉ giữ các trang được chạm tới và có thể bỏ chúng khi
+ * thiếu bộ nhớ. Recall@10 so với quét chính xác:
+ * {@code VECTOR_BACKEND=int8 java --add-modules jdk.incubator.vector ai.nlp.service.ExactVectorIndex recall}
+ */
+public final class QuantizedVectorIndex implements VectorIndex {
+  private final int n, dim;
+  private final ByteBuffer codes;
+  private final float[] min, scale;
+  private final FloatBuffer vectors;
+  private final int[] entryDoc;
+  private final List<VectorCorpus.Doc> docs;
+  private final int maxEntriesPerDoc;
+  private final int oversample;
+  private final boolean simd;
+  private final int partitions;
+  private final ExecutorService pool;
+
+  QuantizedVectorIndex(VectorCorpus corpus, int threads, int oversample, Path floatFile) throws IOException {
+    n = corpus.size();
+    dim = Math.max(0, corpus.dimension());
+    docs = List.copyOf(corpus.docs);
+    this.oversample = Math.max(1, oversample);
+
+    min = new float[dim];
+    scale = new float[dim];
+    float[] max = new float[dim];
+    Arrays.fill(min, Float.POSITIVE_INFINITY);
+    Arrays.fill(max, Float.NEGATIVE_INFINITY);
+    for (float[] v : corpus.vectors) {
+      for (int d = 0; d < dim; d++) {
+        min[d] = Math.min(min[d], v[d]);
+        max[d] = Math.max(max[d], v[d]);
+      }
+    }
+    for (int d = 0; d < dim; d++) {
+      float range = max[d] - min[d];
+      scale[d] = range > 0 ? range / 255f : 1f;
+    }
+
+    codes = ByteBuffer.allocateDirect(Math.multiplyExact(n, dim));
+    entryDoc = new int[n];
+    int[] perDoc = new int[docs.size()];
+    for (int i = 0; i < n; i++) {
+      entryDoc[i] = corpus.doc(i);
+      perDoc[entryDoc[i]]++;
+      float[] v = corpus.vectors.get(i);
+      for (int d = 0; d < dim; d++) {
+        int c = Math.round((v[d] - min[d]) / scale[d]);
+        codes.put((byte) (Math.max(0, Math.min(255, c)) - 128));
+      }
+    }
+    int c = 1;
+    for (int p : perDoc) c = Math.max(c, p);
+    maxEntriesPerDoc = c;
+    vectors = spill(corpus, floatFile);
+    simd = simdUsable();
+    partitions = ExactVectorIndex.partitions(threads, n);
+    pool = ExactVectorIndex.scanPool(partitions, "int8-scan");
+  }
+
+  /**
+   * Nạp corpus của version đang phục vụ; {@code EXACT_THREADS}, {@code QUANT_OVERSAMPLE} (mặc định 4),
+   * {@code QUANT_FLOAT_FILE} (mặc định file tạm, xoá khi thoát).
+   */
+  static QuantizedVectorIndex load(Driver driver, String db) throws IOException {
+    var env = System.getenv();
+    int threads = Integer.parseInt(env.getOrDefault("EXACT_THREADS",
+        String.valueOf(Runtime.getRuntime().availableProcessors())));
+    int oversample = Integer.parseInt(env.getOrDefault("QUANT_OVERSAMPLE", "4"));
+    Path floatFile;
+    if (env.containsKey("QUANT_FLOAT_FILE")) {
+      floatFile = Path.of(env.get("QUANT_FLOAT_FILE"));
+    } else {
+      floatFile = Files.createTempFile("qa-vectors", ".f32");
+      floatFile.toFile().deleteOnExit();
+    }
+    try (Session s = driver.session(SessionConfig.forDatabase(db))) {
+      QuantizedVectorIndex idx = new QuantizedVectorIndex(VectorCorpus.load(s), threads, oversample, floatFile);
+      System.out.printf("🧮 Int8 scan: %d vector, dim=%d, %d luồng, %s, oversample=%d, %.1f MB mã int8 (float: %s)%n",
+          idx.n, idx.dim, idx.partitions, idx.simd ? "SIMD " + Simd.F.length() + " lane" : "vô hướng",
+          idx.oversample, idx.codes.capacity() / 1e6, floatFile);
+      return idx;
+    }
+  }
+
+  @Override
+  public List<Hit> topK(float[] query, int k) {
+    if (n == 0 || k <= 0) return List.of();
+    float[] q = VectorCorpus.normalize(query);
+    if (q.length != dim) throw new IllegalArgumentException("Query dim " + q.length + " != " + dim);
+
+    float[] qs = new float[dim];
+    for (int d = 0; d < dim; d++) qs[d] = q[d] * scale[d];
+    int candidates = ExactVectorIndex.keepRows(k * oversample, maxEntriesPerDoc, n);
+    HnswGraph.Heap first = ExactVectorIndex.topRows(pool, partitions, n, candidates, row -> approx(qs, row));
+
+    int keep = ExactVectorIndex.keepRows(k, maxEntriesPerDoc, n);
+    HnswGraph.Heap rescored = new HnswGraph.Heap(false, keep + 1);
+    while (first.size() > 0) {
+      int row = first.pop();
+      ExactVectorIndex.offer(rescored, keep, dot(q, row), row);
+    }
+    return ExactVectorIndex.collapse(rescored, entryDoc, docs, k);
+  }
+
+  int size() {
+    return n;
+  }
+
+  @Override
+  public void close() {
+    if (pool != null) pool.shutdownNow();
+  }
+
+  /**
+   * {@code Σ qs_d·code_d}: cùng thứ tự với tích vô hướng trên vector đã giải mã.
+   */
+  private float approx(float[] qs, int row) {
+    int base = row * dim;
+    if (simd) return Simd.approx(qs, codes, base, dim);
+    float s = 0;
+    for (int i = 0; i < dim; i++) s += qs[i] * codes.get(base + i);
+    return s;
+  }
+
+  private float dot(float[] q, int row) {
+    int base = row * dim;
+    float s = 0;
+    for (int i = 0; i < dim; i++) s += q[i] * vectors.get(base + i);
+    return s;
+  }
+
+  /**
+   * Có module Vector API và CPU đủ rộng. Kiểm tra module trước khi chạm tới {@link Simd}: khởi tạo lớp đó khi
+   * thiếu {@code --add-modules jdk.incubator.vector} sẽ ném NoClassDefFoundError.
+   */
+  private static boolean simdUsable() {
+    return ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent() && Simd.B != null;
+  }
+
+  /**
+   * Nhân SIMD, chỉ được nạp qua {@link #simdUsable()}.
+   */
+  private static final class Simd {
+    // cùng shape với CPU: 8 byte -> 8 float (AVX2), 16 byte -> 16 float (AVX-512). Shape byte nhỏ nhất là 64 bit,
+    // nên với vector 128 bit (SSE, NEON) không có cặp species hợp lệ -> null, dùng vòng vô hướng thay vì shape
+    // rộng hơn phần cứng (bị giả lập, chậm hơn cả vô hướng)
+    static final VectorSpecies<Float> F = FloatVector.SPECIES_PREFERRED;
+    static final VectorSpecies<Byte> B = F.vectorBitSize() / 4 >= 64
+        ? VectorSpecies.of(byte.class, VectorShape.forBitSize(F.length() * 8)) : null;
+
+    static float approx(float[] qs, ByteBuffer codes, int base, int dim) {
+      int bound = F.loopBound(dim);
+      FloatVector acc = FloatVector.zero(F);
+      int i = 0;
+      for (; i < bound; i += F.length()) {
+        FloatVector c = (FloatVector) ByteVector.fromByteBuffer(B, codes, base + i, ByteOrder.nativeOrder())
+            .convertShape(VectorOperators.B2F, F, 0);
+        acc = FloatVector.fromArray(F, qs, i).fma(c, acc);
+      }
+      float s = acc.reduceLanes(VectorOperators.ADD);
+      for (; i < dim; i++) s += qs[i] * codes.get(base + i);
+      return s;
+    }
+  }
+
+  /**
+   * Ghi vector float ra {@code file} (native order) rồi map chỉ đọc.
+   */
+  private static FloatBuffer spill(VectorCorpus corpus, Path file) throws IOException {
+    int dim = Math.max(0, corpus.dimension());
+    long bytes = (long) corpus.size() * dim * Float.BYTES;
+    if (bytes > Integer.MAX_VALUE) throw new IllegalStateException("Vector float quá 2 GB: " + bytes + " byte");
+    try (FileChannel ch = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+        StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+      ByteBuffer buf = ByteBuffer.allocateDirect(1 << 20).order(ByteOrder.nativeOrder());
+      for (float[] v : corpus.vectors) {
+        for (float x : v) {
+          if (buf.remaining() < Float.BYTES) {
+            buf.flip();
+            while (buf.hasRemaining()) ch.write(buf);
+            buf.clear();
+          }
+          buf.putFloat(x);
+        }
+      }
+      buf.flip();
+      while (buf.hasRemaining()) ch.write(buf);
+      return ch.map(FileChannel.MapMode.READ_ONLY, 0, bytes).order(ByteOrder.nativeOrder()).asFloatBuffer();
+    }
+  }
+}
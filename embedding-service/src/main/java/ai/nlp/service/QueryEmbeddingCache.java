@@ -0,0 +1,204 @@
+package ai.nlp.service;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Cache in-heap cho embedding câu hỏi (W-TinyLFU rút gọn) + single-flight.
+ * <p>
+ * - Cửa sổ LRU nhỏ (~1% dung lượng) nhận mọi key mới; key bị đẩy khỏi cửa sổ chỉ được vào vùng chính
+ * nếu tần suất ước lượng (count-min sketch, có lão hoá) cao hơn nạn nhân LRU của vùng chính.
+ * Câu hỏi lặp lại nhiều nhờ đó không bị một loạt câu hỏi một-lần đẩy ra.
+ * - N request đồng thời cho cùng một câu hỏi chỉ gây ra một lần gọi loader; các request sau chờ kết quả đó.
+ * <p>
+ * Vector trả ra luôn là bản sao, caller sửa thoải mái.
+ */
+public final class QueryEmbeddingCache {
+
+  @FunctionalInterface
+  public interface Loader {
+    float[] load(String text) throws IOException;
+  }
+
+  public record Stats(long hits, long misses, long coalesced, long evictions, int size) {
+  }
+
+  private final int windowCap;
+  private final int mainCap;
+  private final LinkedHashMap<String, float[]> window = new LinkedHashMap<>(16, 0.75f, true);
+  private final LinkedHashMap<String, float[]> main = new LinkedHashMap<>(16, 0.75f, true);
+  private final FrequencySketch sketch;
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Map<String, CompletableFuture<float[]>> inflight = new ConcurrentHashMap<>();
+
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder coalesced = new LongAdder();
+  private final LongAdder evictions = new LongAdder();
+
+  public QueryEmbeddingCache(int capacity) {
+    if (capacity < 2) throw new IllegalArgumentException("capacity must be >= 2");
+    this.windowCap = Math.max(1, capacity / 100);
+    this.mainCap = capacity - windowCap;
+    this.sketch = new FrequencySketch(capacity);
+  }
+
+  public float[] get(String text, Loader loader) throws IOException {
+    String key = text.strip();
+    float[] v = lookup(key, true);
+    if (v != null) {
+      hits.increment();
+      return v.clone();
+    }
+
+    CompletableFuture<float[]> mine = new CompletableFuture<>();
+    CompletableFuture<float[]> running = inflight.putIfAbsent(key, mine);
+    if (running != null) {
+      coalesced.increment();
+      return await(running).clone();
+    }
+    try {
+      // có thể vừa được thread khác nạp xong giữa lookup và putIfAbsent
+      v = lookup(key, false);
+      if (v == null) {
+        misses.increment();
+        v = loader.load(key); // embed đúng chuỗi làm khoá: mọi biến thể khoảng trắng nhận cùng vector
+        insert(key, v);
+      } else {
+        hits.increment();
+      }
+      mine.complete(v);
+      return v.clone();
+    } catch (IOException | RuntimeException e) {
+      mine.completeExceptionally(e);
+      throw e;
+    } finally {
+      inflight.remove(key, mine);
+    }
+  }
+
+  public Stats stats() {
+    lock.lock();
+    try {
+      return new Stats(hits.sum(), misses.sum(), coalesced.sum(), evictions.sum(), window.size() + main.size());
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  // ---- internals ----
+
+  private float[] lookup(String key, boolean record) {
+    lock.lock();
+    try {
+      if (record) sketch.increment(key);
+      float[] v = window.get(key);
+      return v != null ? v : main.get(key);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private void insert(String key, float[] v) {
+    lock.lock();
+    try {
+      if (window.containsKey(key) || main.containsKey(key)) return;
+      window.put(key, v);
+      if (window.size() <= windowCap) return;
+
+      Iterator<Map.Entry<String, float[]>> wi = window.entrySet().iterator();
+      Map.Entry<String, float[]> candidate = wi.next();
+      wi.remove();
+      if (main.size() < mainCap) {
+        main.put(candidate.getKey(), candidate.getValue());
+        return;
+      }
+
+      Iterator<Map.Entry<String, float[]>> mi = main.entrySet().iterator();
+      Map.Entry<String, float[]> victim = mi.next();
+      if (sketch.frequency(candidate.getKey()) > sketch.frequency(victim.getKey())) {
+        mi.remove();
+        main.put(candidate.getKey(), candidate.getValue());
+      }
+      evictions.increment(); // victim hoặc candidate bị loại
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private static float[] await(CompletableFuture<float[]> f) throws IOException {
+    try {
+      return f.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting for query embedding");
+    } catch (ExecutionException e) {
+      Throwable c = e.getCause();
+      if (c instanceof IOException io) throw io;
+      if (c instanceof RuntimeException re) throw re;
+      throw new IOException(c);
+    }
+  }
+
+  /**
+   * Count-min sketch 4 hàng, bộ đếm bão hoà ở 15; sau mỗi 10 × capacity lần tăng thì chia đôi toàn bộ
+   * để tần suất cũ phai dần. Không thread-safe: dùng dưới lock của cache.
+   */
+  static final class FrequencySketch {
+    private static final int DEPTH = 4;
+    private static final int MAX_COUNT = 15;
+    private static final int[] SEEDS = {0x9E3779B1, 0x85EBCA77, 0xC2B2AE3D, 0x27D4EB2F};
+
+    private final byte[][] table;
+    private final int mask;
+    private final int sampleSize;
+    private int additions;
+
+    FrequencySketch(int capacity) {
+      int width = Integer.highestOneBit(Math.max(64, capacity * 4 - 1)) << 1;
+      this.table = new byte[DEPTH][width];
+      this.mask = width - 1;
+      this.sampleSize = 10 * capacity;
+    }
+
+    void increment(String key) {
+      int h = key.hashCode();
+      boolean added = false;
+      for (int i = 0; i < DEPTH; i++) {
+        int idx = index(h, i);
+        if (table[i][idx] < MAX_COUNT) {
+          table[i][idx]++;
+          added = true;
+        }
+      }
+      if (added && ++additions >= sampleSize) reset();
+    }
+
+    int frequency(String key) {
+      int h = key.hashCode();
+      int min = MAX_COUNT;
+      for (int i = 0; i < DEPTH; i++) min = Math.min(min, table[i][index(h, i)]);
+      return min;
+    }
+
+    private int index(int h, int row) {
+      int x = h * SEEDS[row];
+      return (x ^ (x >>> 16)) & mask;
+    }
+
+    private void reset() {
+      for (byte[] row : table) {
+        for (int j = 0; j < row.length; j++) row[j] >>= 1;
+      }
+      additions /= 2;
+    }
+  }
+}
@@ -0,0 +1,125 @@
+package ai.nlp.service;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Gom các query embedding đến gần nhau thành một request TEI.
+ * <p>
+ * Request đầu tiên mở một cửa sổ {@code window}; mọi query đến trong cửa sổ (tối đa {@code maxBatch})
+ * đi chung một lượt {@link EmbeddingClient#embedBatchAsync}, rồi kết quả được trả về cho từng caller.
+ * Khi tải thấp, một query chỉ chờ thêm tối đa {@code window}; khi tải cao, mỗi request TEI mang nhiều query.
+ * Nếu TEI đã đủ {@code maxInFlight}, thread gom bị chặn và query tiếp tục dồn lại cho lượt sau.
+ */
+public final class QueryMicroBatcher implements Closeable {
+
+  public record Stats(long batches, long queries) {
+    public double averageBatchSize() {
+      return batches == 0 ? 0 : (double) queries / batches;
+    }
+  }
+
+  private record Pending(String text, CompletableFuture<float[]> result) {
+  }
+
+  private final EmbeddingClient client;
+  private final long windowNanos;
+  private final int maxBatch;
+  private final LinkedBlockingQueue<Pending> queue = new LinkedBlockingQueue<>();
+  private final Thread dispatcher;
+  private volatile boolean running = true;
+
+  private final LongAdder batches = new LongAdder();
+  private final LongAdder queries = new LongAdder();
+
+  public QueryMicroBatcher(EmbeddingClient client, long windowMicros, int maxBatch) {
+    this.client = client;
+    this.windowNanos = TimeUnit.MICROSECONDS.toNanos(Math.max(0, windowMicros));
+    this.maxBatch = Math.max(1, maxBatch);
+    this.dispatcher = new Thread(this::run, "tei-query-batcher");
+    this.dispatcher.setDaemon(true);
+    this.dispatcher.start();
+  }
+
+  public CompletableFuture<float[]> submit(String text) {
+    CompletableFuture<float[]> f = new CompletableFuture<>();
+    if (!running) {
+      f.completeExceptionally(new IOException("QueryMicroBatcher closed"));
+      return f;
+    }
+    queue.add(new Pending(text, f));
+    return f;
+  }
+
+  public float[] embed(String text) throws IOException {
+    try {
+      return submit(text).get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting for query embedding");
+    } catch (ExecutionException e) {
+      Throwable c = e.getCause();
+      if (c instanceof IOException io) throw io;
+      if (c instanceof RuntimeException re) throw re;
+      throw new IOException(c);
+    }
+  }
+
+  public Stats stats() {
+    return new Stats(batches.sum(), queries.sum());
+  }
+
+  @Override
+  public void close() {
+    running = false;
+    dispatcher.interrupt();
+    Pending p;
+    while ((p = queue.poll()) != null) p.result.completeExceptionally(new IOException("QueryMicroBatcher closed"));
+  }
+
+  private void run() {
+    List<Pending> batch = new ArrayList<>(maxBatch);
+    while (running) {
+      try {
+        Pending first = queue.poll(100, TimeUnit.MILLISECONDS);
+        if (first == null) continue;
+        batch.add(first);
+        long deadline = System.nanoTime() + windowNanos;
+        while (batch.size() < maxBatch) {
+          long left = deadline - System.nanoTime();
+          Pending p = left > 0 ? queue.poll(left, TimeUnit.NANOSECONDS) : queue.poll();
+          if (p == null) break;
+          batch.add(p);
+        }
+        dispatch(List.copyOf(batch));
+      } catch (InterruptedException e) {
+        for (Pending p : batch) p.result.completeExceptionally(new InterruptedIOException("QueryMicroBatcher closed"));
+        Thread.currentThread().interrupt();
+        return;
+      } finally {
+        batch.clear();
+      }
+    }
+  }
+
+  private void dispatch(List<Pending> batch) {
+    batches.increment();
+    queries.add(batch.size());
+    List<String> texts = new ArrayList<>(batch.size());
+    for (Pending p : batch) texts.add(p.text);
+    client.embedBatchAsync(texts, true).whenComplete((v, e) -> {
+      for (int i = 0; i < batch.size(); i++) {
+        if (e != null) batch.get(i).result.completeExceptionally(e);
+        else batch.get(i).result.complete(v[i]);
+      }
+    });
+  }
+}
@@ -0,0 +1,155 @@
+package ai.nlp.service;
+
+import org.neo4j.driver.*;
+import org.neo4j.driver.summary.Plan;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.neo4j.driver.Values.parameters;
+
+/**
+ * Schema Neo4j theo version, chạy trước ingest ({@link IngestQA}, {@link IngestKG}) và khi service khởi động.
+ * <p>
+ * Mỗi migration có số version tăng dần; migration đã chạy được ghi thành {@code (:SchemaMigration {version})}
+ * nên chỉ migration mới được áp dụng. Mọi câu lệnh đều {@code IF NOT EXISTS}, nên hai process cùng migrate
+ * không làm hỏng gì. Thêm thay đổi schema = thêm một phần tử cuối {@link #MIGRATIONS}, không sửa phần tử cũ.
+ * <p>
+ * Vector index phụ thuộc số chiều của model nên không nằm trong danh sách version: {@link #migrate} chỉ tạo
+ * index của version đang phục vụ khi đã có vector mà index còn thiếu (xem {@link VectorIndexManager}).
+ * <p>
+ * {@link #verifyPlans} EXPLAIN các câu MERGE của ingest và kiểm tra planner dùng unique index seek
+ * ({@code NodeUniqueIndexSeek}) thay vì quét theo label; {@code SchemaMigrationsTest} kiểm tra điều này khi có
+ * {@code NEO4J_TEST_URI}. {@code verify} tự migrate trước rồi thoát mã 1 khi có plan sai, để chạy trên database
+ * thật. Run (sau khi nâng Neo4j):
+ * java ai.nlp.service.SchemaMigrations [migrate | verify]
+ */
+public final class SchemaMigrations {
+
+  record Migration(int version, String description, List<String> statements) {
+  }
+
+  static final List<Migration> MIGRATIONS = List.of(
+      new Migration(1, "QA / QAChunk id uniqueness", List.of(
+          "CREATE CONSTRAINT schema_migration_version IF NOT EXISTS "
+              + "FOR (m:SchemaMigration) REQUIRE m.version IS UNIQUE",
+          "CREATE CONSTRAINT qa_id IF NOT EXISTS FOR (n:QA) REQUIRE n.id IS UNIQUE",
+          "CREATE CONSTRAINT qa_chunk_id IF NOT EXISTS FOR (c:QAChunk) REQUIRE c.id IS UNIQUE")),
+      new Migration(2, "Knowledge graph entity lookups", List.of(
+          "CREATE CONSTRAINT entity_name IF NOT EXISTS FOR (e:Entity) REQUIRE e.name IS UNIQUE",
+          "CREATE INDEX entity_type IF NOT EXISTS FOR (e:Entity) ON (e.type)")),
+      new Migration(3, "Vector index config node", List.of(
+          "CREATE CONSTRAINT vector_index_config_name IF NOT EXISTS "
+              + "FOR (c:VectorIndexConfig) REQUIRE c.name IS UNIQUE"))
+  );
+
+  /**
+   * Câu MERGE của ingest phải được plan bằng unique index seek.
+   */
+  private static final List<String> INGEST_MERGES = List.of(
+      "MERGE (n:QA {id: $key}) RETURN n",
+      "MERGE (c:QAChunk {id: $key}) RETURN c",
+      "MERGE (e:Entity {name: $key}) RETURN e");
+
+  private SchemaMigrations() {
+  }
+
+  /**
+   * Áp dụng các migration chưa chạy, đảm bảo vector index của version đang phục vụ, rồi cảnh báo nếu plan của
+   * MERGE không dùng index.
+   */
+  public static void migrate(Session s) {
+    apply(s);
+    for (String problem : verifyPlans(s)) System.err.println("⚠️ " + problem);
+  }
+
+  /**
+   * Áp dụng các migration chưa chạy và đảm bảo vector index của version đang phục vụ.
+   */
+  static void apply(Session s) {
+    Set<Integer> applied = new HashSet<>();
+    var rs = s.run("MATCH (m:SchemaMigration) RETURN m.version AS v");
+    while (rs.hasNext()) applied.add(rs.next().get("v").asInt());
+
+    for (Migration m : MIGRATIONS) {
+      if (applied.contains(m.version())) continue;
+      // DDL không chạy chung transaction với ghi dữ liệu: mỗi câu một auto-commit transaction
+      for (String stmt : m.statements()) s.run(stmt).consume();
+      s.executeWrite(tx -> {
+        tx.run("""
+            MERGE (m:SchemaMigration {version: $version})
+            SET m.description = $description, m.appliedAt = datetime()
+            """, parameters("version", m.version(), "description", m.description())).consume();
+        return null;
+      });
+      System.out.println("🧱 Schema migration " + m.version() + ": " + m.description());
+    }
+
+    ensureVectorIndexes(s);
+  }
+
+  /**
+   * Tạo index của version đang phục vụ nếu đã có vector (số chiều lấy từ dữ liệu); không chờ ONLINE.
+   */
+  static void ensureVectorIndexes(Session s) {
+    VectorIndexManager.Version v = VectorIndexManager.activeVersion(s);
+    if (VectorIndexManager.indexExists(s, v.qaIndex())) return;
+    var rs = s.run("MATCH (n:QA) WHERE n.%1$s IS NOT NULL RETURN size(n.%1$s) AS dim LIMIT 1".formatted(v.property()));
+    if (!rs.hasNext()) return; // chưa ingest: IngestQA tạo index ở batch đầu
+    VectorIndexManager.ensureIndexes(s, v, rs.next().get("dim").asInt(), IngestQA.vectorSimilarity(), true);
+    System.out.println("🧱 Tạo vector index " + v.qaIndex() + " / " + v.chunkIndex());
+  }
+
+  /**
+   * EXPLAIN từng câu MERGE của ingest; trả về mô tả các câu không dùng unique index seek (rỗng = ổn).
+   */
+  public static List<String> verifyPlans(Session s) {
+    List<String> problems = new ArrayList<>();
+    for (String q : INGEST_MERGES) {
+      Plan plan = s.run("EXPLAIN " + q, parameters("key", "")).consume().plan();
+      if (!usesOperator(plan, "NodeUniqueIndexSeek")) {
+        problems.add("Plan không dùng unique index: " + q + " -> " + operators(plan));
+      }
+    }
+    return problems;
+  }
+
+  private static boolean usesOperator(Plan p, String name) {
+    if (p.operatorType().contains(name)) return true;
+    for (Plan c : p.children()) {
+      if (usesOperator(c, name)) return true;
+    }
+    return false;
+  }
+
+  private static String operators(Plan p) {
+    StringBuilder sb = new StringBuilder(p.operatorType());
+    for (Plan c : p.children()) sb.append(" <- ").append(operators(c));
+    return sb.toString();
+  }
+
+  public static void main(String[] args) {
+    String cmd = args.length > 0 ? args[0] : "migrate";
+    String uri = System.getenv().getOrDefault("NEO4J_URI", "bolt://localhost:7687");
+    String user = System.getenv().getOrDefault("NEO4J_USER", "neo4j");
+    String pass = System.getenv().getOrDefault("NEO4J_PASS", "12345678");
+    String db = System.getenv().getOrDefault("NEO4J_DB", "rag");
+
+    try (Driver driver = GraphDatabase.driver(uri, AuthTokens.basic(user, pass));
+         Session s = driver.session(SessionConfig.forDatabase(db))) {
+      switch (cmd) {
+        case "migrate" -> migrate(s);
+        case "verify" -> {
+          apply(s);
+          List<String> problems = verifyPlans(s);
+          problems.forEach(System.err::println);
+          if (!problems.isEmpty()) System.exit(1);
+          System.out.println("✅ MERGE của ingest dùng unique index seek");
+        }
+        default -> throw new IllegalArgumentException("Usage: migrate | verify");
+      }
+    }
+  }
+}
@@ -0,0 +1,158 @@
+package ai.nlp.service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Danh sách replica TEI:
+ * - chọn replica có ít request đang chờ nhất (least outstanding requests), hoà thì chọn ngẫu nhiên
+ * - loại tạm (eject) replica lỗi liên tiếp, thời gian loại tăng gấp đôi mỗi lần, tối đa {@link #MAX_EJECT_MS}
+ * - giữ cửa sổ latency gần nhất để tính p95 làm ngưỡng gửi hedged request
+ */
+final class TeiReplicaPool {
+  static final int EJECT_AFTER_FAILURES = 3;
+  static final long BASE_EJECT_MS = 5_000;
+  static final long MAX_EJECT_MS = 60_000;
+
+  static final class Replica {
+    final String url;
+    final AtomicInteger outstanding = new AtomicInteger();
+    private int consecutiveFailures;
+    private int ejections;
+    private long ejectedUntil;
+
+    Replica(String url) {
+      this.url = url;
+    }
+
+    synchronized boolean available(long now) {
+      return now >= ejectedUntil;
+    }
+
+    synchronized void onSuccess() {
+      consecutiveFailures = 0;
+      ejections = 0;
+    }
+
+    synchronized void onFailure(long now) {
+      if (++consecutiveFailures >= EJECT_AFTER_FAILURES) {
+        long ms = Math.min(MAX_EJECT_MS, BASE_EJECT_MS << Math.min(ejections, 10));
+        ejectedUntil = now + ms;
+        ejections++;
+        consecutiveFailures = 0;
+        System.err.println("⚠️ TEI replica ejected for " + ms + " ms: " + url);
+      }
+    }
+
+    synchronized long ejectedUntil() {
+      return ejectedUntil;
+    }
+
+    @Override
+    public String toString() {
+      return url;
+    }
+  }
+
+  private final List<Replica> replicas;
+  private final LatencyWindow latency = new LatencyWindow(512);
+
+  TeiReplicaPool(List<String> urls) {
+    if (urls.isEmpty()) throw new IllegalArgumentException("No TEI endpoint configured");
+    List<Replica> list = new ArrayList<>(urls.size());
+    for (String u : urls) list.add(new Replica(u));
+    this.replicas = List.copyOf(list);
+  }
+
+  /**
+   * Tách "http://a/embeddings, http://b/embeddings" thành danh sách endpoint.
+   */
+  static List<String> parseUrls(String spec) {
+    List<String> out = new ArrayList<>();
+    for (String s : spec.split(",")) {
+      if (!s.isBlank()) out.add(s.trim());
+    }
+    return out;
+  }
+
+  int size() {
+    return replicas.size();
+  }
+
+  /**
+   * Replica khả dụng có ít request đang chờ nhất, bỏ qua {@code exclude}.
+   * Nếu mọi replica đều đang bị loại thì trả replica sắp hết hạn loại sớm nhất (fail-open).
+   * Trả null chỉ khi không còn replica nào khác {@code exclude}.
+   */
+  Replica pick(Replica exclude) {
+    long now = System.currentTimeMillis();
+    Replica best = null, fallback = null;
+    int bestLoad = Integer.MAX_VALUE, ties = 0;
+    for (Replica r : replicas) {
+      if (r == exclude) continue;
+      if (!r.available(now)) {
+        if (fallback == null || r.ejectedUntil() < fallback.ejectedUntil()) fallback = r;
+        continue;
+      }
+      int load = r.outstanding.get();
+      if (load < bestLoad) {
+        best = r;
+        bestLoad = load;
+        ties = 1;
+      } else if (load == bestLoad && ThreadLocalRandom.current().nextInt(++ties) == 0) {
+        best = r; // reservoir sampling giữa các replica hoà
+      }
+    }
+    return best != null ? best : fallback;
+  }
+
+  void recordLatency(long millis) {
+    latency.record(millis);
+  }
+
+  /**
+   * p95 latency gần nhất, hoặc -1 nếu chưa đủ mẫu.
+   */
+  long p95Millis() {
+    return latency.percentile(0.95);
+  }
+
+  /**
+   * Ring buffer latency; percentile được tính lại (sort bản sao) mỗi {@code RECOMPUTE_EVERY} mẫu.
+   */
+  static final class LatencyWindow {
+    private static final int MIN_SAMPLES = 20;
+    private static final int RECOMPUTE_EVERY = 32;
+
+    private final long[] samples;
+    private int next, count, sinceRecompute;
+    private double cachedQ = -1;
+    private long cachedValue = -1;
+
+    LatencyWindow(int capacity) {
+      this.samples = new long[capacity];
+    }
+
+    synchronized void record(long millis) {
+      samples[next] = millis;
+      next = (next + 1) % samples.length;
+      if (count < samples.length) count++;
+      sinceRecompute++;
+    }
+
+    synchronized long percentile(double q) {
+      if (count < MIN_SAMPLES) return -1;
+      if (q != cachedQ || sinceRecompute >= RECOMPUTE_EVERY) {
+        long[] copy = Arrays.copyOf(samples, count);
+        Arrays.sort(copy);
+        cachedValue = copy[Math.min(count - 1, (int) Math.ceil(q * count) - 1)];
+        cachedQ = q;
+        sinceRecompute = 0;
+      }
+      return cachedValue;
+    }
+  }
+}
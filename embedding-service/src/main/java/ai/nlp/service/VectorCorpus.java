@@ -0,0 +1,101 @@
+package ai.nlp.service;
+
+import org.neo4j.driver.Session;
+import org.neo4j.driver.Value;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Ảnh chụp các vector của version đang phục vụ, để dựng index cục bộ ({@link HnswIndex}).
+ * <p>
+ * Mỗi QA là một {@link Doc}; mỗi vector (của :QA và của từng :QAChunk) là một entry trỏ về doc của nó, nên
+ * hit trên chunk được gộp về QA cha như {@link Neo4jVectorIndex}. Vector được chuẩn hoá L2 khi nạp:
+ * cosine = tích vô hướng.
+ */
+final class VectorCorpus {
+
+  record Doc(String id, String question, String answer) {
+  }
+
+  final List<Doc> docs = new ArrayList<>();
+  final List<float[]> vectors = new ArrayList<>();
+  private int[] entryDoc = new int[1024];
+  private int dim = -1;
+
+  int size() {
+    return vectors.size();
+  }
+
+  int dimension() {
+    return dim;
+  }
+
+  int doc(int entry) {
+    return entryDoc[entry];
+  }
+
+  void add(float[] v, int doc) {
+    if (dim < 0) dim = v.length;
+    if (v.length != dim) throw new IllegalArgumentException("Vector dim " + v.length + " != " + dim);
+    if (vectors.size() == entryDoc.length) entryDoc = Arrays.copyOf(entryDoc, entryDoc.length * 2);
+    entryDoc[vectors.size()] = doc;
+    vectors.add(normalize(v));
+  }
+
+  /**
+   * Nạp QA và chunk của version đang phục vụ ({@link VectorIndexManager#activeVersion}).
+   */
+  static VectorCorpus load(Session s) {
+    VectorIndexManager.Version v = VectorIndexManager.activeVersion(s);
+    VectorCorpus c = new VectorCorpus();
+    Map<String, Integer> docIndex = new HashMap<>();
+
+    var rs = s.run("""
+        MATCH (n:QA) WHERE n.%1$s IS NOT NULL
+        RETURN n.id AS id, n.question AS q, n.answer AS a, n.%1$s AS emb
+        """.formatted(v.property()));
+    while (rs.hasNext()) {
+      var r = rs.next();
+      int doc = c.docs.size();
+      c.docs.add(new Doc(r.get("id").asString(), r.get("q").asString(""), r.get("a").asString("")));
+      docIndex.put(r.get("id").asString(), doc);
+      c.add(toFloats(r.get("emb")), doc);
+    }
+
+    rs = s.run("""
+        MATCH (n:QA)-[:HAS_CHUNK]->(ch:QAChunk) WHERE ch.%1$s IS NOT NULL
+        RETURN n.id AS id, ch.%1$s AS emb
+        """.formatted(v.property()));
+    while (rs.hasNext()) {
+      var r = rs.next();
+      Integer doc = docIndex.get(r.get("id").asString());
+      if (doc != null) c.add(toFloats(r.get("emb")), doc);
+    }
+    System.out.printf("📥 Corpus %s: %d QA, %d vector, dim=%d%n", v.property(), c.docs.size(), c.size(), c.dim);
+    return c;
+  }
+
+  static float[] toFloats(Value v) {
+    List<Float> list = v.asList(Value::asFloat);
+    float[] out = new float[list.size()];
+    for (int i = 0; i < out.length; i++) out[i] = list.get(i);
+    return out;
+  }
+
+  /**
+   * Bản sao chuẩn hoá L2 (vector 0 giữ nguyên).
+   */
+  static float[] normalize(float[] v) {
+    double ss = 0;
+    for (float x : v) ss += (double) x * x;
+    float[] out = v.clone();
+    if (ss == 0) return out;
+    float inv = (float) (1.0 / Math.sqrt(ss));
+    for (int i = 0; i < out.length; i++) out[i] *= inv;
+    return out;
+  }
+}
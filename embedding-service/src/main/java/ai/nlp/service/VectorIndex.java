@@ -0,0 +1,48 @@
+package ai.nlp.service;
+
+import org.neo4j.driver.Driver;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Tìm top-k QA theo vector câu hỏi — hợp đồng của {@code GraphRAGService.vectorTopK}.
+ * <p>
+ * Kết quả đã gộp hit của :QAChunk về QA cha (điểm cao nhất), sắp giảm dần theo điểm. Điểm cùng thang với
+ * {@code db.index.vector.queryNodes} cho cosine: {@code (1 + cos) / 2}, trong [0, 1].
+ * <p>
+ * {@link #fromEnv} chọn backend theo {@code VECTOR_BACKEND}: {@code neo4j} (mặc định, vector index của
+ * Neo4j), {@code hnsw} (file {@link HnswIndex} nạp bằng mmap, không qua Bolt), {@code exact} (quét toàn bộ
+ * bằng SIMD, {@link ExactVectorIndex}) hoặc {@code int8} (quét mã int8 rồi chấm lại bằng float,
+ * {@link QuantizedVectorIndex}).
+ */
+public interface VectorIndex extends Closeable {
+
+  /**
+   * Một QA trong kết quả.
+   */
+  record Hit(String id, String question, String answer, double score) {
+  }
+
+  List<Hit> topK(float[] query, int k);
+
+  static VectorIndex fromEnv(Driver driver, String db) throws IOException {
+    String backend = System.getenv().getOrDefault("VECTOR_BACKEND", "neo4j");
+    return switch (backend) {
+      case "neo4j" -> new Neo4jVectorIndex(driver, db);
+      case "hnsw" -> HnswIndex.open(Path.of(System.getenv().getOrDefault("HNSW_INDEX_FILE", "qa.hnsw")));
+      case "exact" -> ExactVectorIndex.load(driver, db);
+      case "int8" -> QuantizedVectorIndex.load(driver, db);
+      default -> throw new IllegalArgumentException("Unknown VECTOR_BACKEND: " + backend);
+    };
+  }
+
+  /**
+   * Cosine của hai vector đã chuẩn hoá -> điểm kiểu Neo4j.
+   */
+  static double score(float cosine) {
+    return (1.0 + cosine) / 2.0;
+  }
+}
@@ -0,0 +1,236 @@
+package ai.nlp.service;
+
+import org.neo4j.driver.*;
+
+import java.time.Duration;
+import java.util.regex.Pattern;
+
+import static org.neo4j.driver.Values.parameters;
+
+/**
+ * Vòng đời vector index của :QA / :QAChunk, kèm blue/green khi đổi model embedding.
+ * <p>
+ * Mỗi "version" dùng property và index riêng: version mặc định ("") là {@code embedding} /
+ * {@code qa_embedding_index} / {@code qa_chunk_embedding_index}; version {@code v2} là {@code embedding_v2} /
+ * {@code qa_embedding_index_v2} / {@code qa_chunk_embedding_index_v2}. IngestQA với {@code --index-version v2}
+ * ghi vào property mới và dựng index mới trong khi reader vẫn đọc index cũ. :QAChunk cũng tách theo version
+ * ({@link Version#chunkId}), vì cách cắt chunk có thể khác giữa hai version.
+ * <p>
+ * Version đang phục vụ được ghi trên một node {@code (:VectorIndexConfig {name: 'qa'})}. {@link #activate}
+ * cập nhật node này trong một transaction, nên reader ({@link #resolve}) luôn thấy trọn cặp index cũ hoặc
+ * trọn cặp index mới. Chưa có node config thì mọi thứ dùng version mặc định như trước.
+ * <p>
+ * Run (ops):
+ * java ai.nlp.service.VectorIndexManager status
+ * java ai.nlp.service.VectorIndexManager activate v2
+ * java ai.nlp.service.VectorIndexManager drop v1
+ */
+public final class VectorIndexManager {
+  private static final Pattern TAG = Pattern.compile("[A-Za-z0-9_]*");
+  private static final String CONFIG = "qa";
+
+  private VectorIndexManager() {
+  }
+
+  /**
+   * Một bộ property + index. {@code tag} rỗng là version mặc định.
+   */
+  public record Version(String tag) {
+    public Version {
+      if (tag == null) tag = "";
+      // tag đi thẳng vào tên index/property trong DDL nên chỉ cho phép ký tự định danh
+      if (!TAG.matcher(tag).matches()) throw new IllegalArgumentException("Invalid index version: " + tag);
+    }
+
+    public static final Version DEFAULT = new Version("");
+
+    private String suffix() {
+      return tag.isEmpty() ? "" : "_" + tag;
+    }
+
+    public String property() {
+      return "embedding" + suffix();
+    }
+
+    public String hashProperty() {
+      return "contentHash" + suffix();
+    }
+
+    public String qaIndex() {
+      return GraphRAGService.QA_INDEX + suffix();
+    }
+
+    public String chunkIndex() {
+      return GraphRAGService.CHUNK_INDEX + suffix();
+    }
+
+    /**
+     * Phần nối giữa id QA và số thứ tự chunk: {@code #} cho version mặc định (id cũ không đổi), {@code #v2#}
+     * cho version v2. Mỗi version có :QAChunk riêng nên dựng version mới không ghi đè hay xoá chunk của version
+     * đang phục vụ (số chunk đổi theo CHUNK_MAX_TOKENS/model).
+     */
+    public String chunkSeparator() {
+      return tag.isEmpty() ? "#" : "#" + tag + "#";
+    }
+
+    public String chunkId(String qaId, int seq) {
+      return qaId + chunkSeparator() + seq;
+    }
+  }
+
+  /**
+   * Index reader nên dùng; {@code chunkIndex} null khi version đó không có chunk.
+   */
+  public record Active(Version version, String qaIndex, String chunkIndex) {
+  }
+
+  /**
+   * Version đang phục vụ (mặc định nếu chưa từng activate).
+   */
+  public static Version activeVersion(Session s) {
+    var rs = s.run("MATCH (c:VectorIndexConfig {name: $name}) RETURN c.version AS v", parameters("name", CONFIG));
+    return rs.hasNext() ? new Version(rs.next().get("v").asString("")) : Version.DEFAULT;
+  }
+
+  /**
+   * Index mà reader cần truy vấn, đọc trong một query nên không bao giờ lẫn hai version.
+   */
+  public static Active resolve(Session s) {
+    var rs = s.run("MATCH (c:VectorIndexConfig {name: $name}) RETURN c.version AS v, c.chunkIndex AS chunk",
+        parameters("name", CONFIG));
+    if (rs.hasNext()) {
+      var r = rs.next();
+      Version v = new Version(r.get("v").asString(""));
+      return new Active(v, v.qaIndex(), r.get("chunk").isNull() ? null : r.get("chunk").asString());
+    }
+    Version v = Version.DEFAULT;
+    return new Active(v, v.qaIndex(), indexExists(s, v.chunkIndex()) ? v.chunkIndex() : null);
+  }
+
+  /**
+   * Tạo index nếu chưa có (không chờ populate).
+   */
+  public static void ensureIndex(Session s, String name, String label, String property, int dim, String similarity) {
+    s.run("""
+        CREATE VECTOR INDEX %s IF NOT EXISTS
+        FOR (n:%s) ON (n.%s)
+        OPTIONS {indexConfig: {`vector.dimensions`: %d, `vector.similarity_function`: '%s'}}
+        """.formatted(name, label, property, dim, similarity)).consume();
+  }
+
+  /**
+   * Index QA (và chunk nếu {@code withChunks}) cho một version.
+   */
+  public static void ensureIndexes(Session s, Version v, int dim, String similarity, boolean withChunks) {
+    ensureIndex(s, v.qaIndex(), "QA", v.property(), dim, similarity);
+    if (withChunks) ensureIndex(s, v.chunkIndex(), "QAChunk", v.property(), dim, similarity);
+  }
+
+  /**
+   * Chờ index về ONLINE, in tiến độ populate; FAILED hoặc quá {@code timeout} thì ném lỗi.
+   */
+  public static void awaitOnline(Session s, String name, Duration timeout) throws InterruptedException {
+    long deadline = System.nanoTime() + timeout.toNanos();
+    double lastPct = -1;
+    while (true) {
+      var rs = s.run("SHOW INDEXES YIELD name, state, populationPercent WHERE name = $name "
+          + "RETURN state, populationPercent", parameters("name", name));
+      if (!rs.hasNext()) throw new IllegalStateException("Index " + name + " không tồn tại");
+      var r = rs.next();
+      String state = r.get("state").asString();
+      if ("ONLINE".equals(state)) {
+        System.out.println("✅ Index " + name + " ONLINE");
+        return;
+      }
+      if ("FAILED".equals(state)) throw new IllegalStateException("Index " + name + " FAILED");
+      double pct = r.get("populationPercent").asDouble(0);
+      if (pct != lastPct) {
+        System.out.printf("⏳ Index %s %s %.1f%%%n", name, state, pct);
+        lastPct = pct;
+      }
+      if (System.nanoTime() > deadline) {
+        throw new IllegalStateException("Index " + name + " chưa ONLINE sau " + timeout);
+      }
+      Thread.sleep(1000);
+    }
+  }
+
+  /**
+   * Chuyển reader sang version {@code v}. Index của {@code v} phải đã ONLINE.
+   */
+  public static void activate(Session s, Version v) {
+    requireOnline(s, v.qaIndex());
+    String chunk = indexExists(s, v.chunkIndex()) ? v.chunkIndex() : null;
+    if (chunk != null) requireOnline(s, chunk);
+    s.executeWrite(tx -> {
+      tx.run("""
+          MERGE (c:VectorIndexConfig {name: $name})
+          SET c.version = $version, c.chunkIndex = $chunk, c.activatedAt = datetime()
+          """, parameters("name", CONFIG, "version", v.tag(), "chunk", chunk)).consume();
+      return null;
+    });
+    System.out.println("🔀 Reader chuyển sang index " + v.qaIndex() + (chunk == null ? "" : " + " + chunk));
+  }
+
+  /**
+   * Xoá index, property và :QAChunk của một version không còn phục vụ.
+   */
+  public static void drop(Session s, Version v) {
+    if (activeVersion(s).equals(v)) throw new IllegalStateException("Version '" + v.tag() + "' đang phục vụ");
+    s.run("DROP INDEX " + v.qaIndex() + " IF EXISTS").consume();
+    s.run("DROP INDEX " + v.chunkIndex() + " IF EXISTS").consume();
+    for (String label : new String[]{"QA", "QAChunk"}) {
+      // auto-commit transaction: CALL ... IN TRANSACTIONS để không giữ một transaction khổng lồ
+      s.run("""
+          MATCH (n:%1$s) WHERE n.%2$s IS NOT NULL
+          CALL { WITH n REMOVE n.%2$s, n.%3$s } IN TRANSACTIONS OF 10000 ROWS
+          """.formatted(label, v.property(), v.hashProperty())).consume();
+    }
+    // chunk thuộc riêng version này (chunk của version mặc định có thể chưa có indexVersion)
+    s.run("""
+        MATCH (c:QAChunk) WHERE coalesce(c.indexVersion, '') = $tag
+        CALL { WITH c DETACH DELETE c } IN TRANSACTIONS OF 10000 ROWS
+        """, parameters("tag", v.tag())).consume();
+    System.out.println("🗑 Đã xoá version '" + v.tag() + "'");
+  }
+
+  static boolean indexExists(Session s, String name) {
+    return s.run("SHOW INDEXES YIELD name WHERE name = $name RETURN count(*) > 0 AS ok",
+        parameters("name", name)).single().get("ok").asBoolean();
+  }
+
+  private static void requireOnline(Session s, String name) {
+    var rs = s.run("SHOW INDEXES YIELD name, state WHERE name = $name RETURN state", parameters("name", name));
+    String state = rs.hasNext() ? rs.next().get("state").asString() : "MISSING";
+    if (!"ONLINE".equals(state)) throw new IllegalStateException("Index " + name + " đang " + state);
+  }
+
+  public static void main(String[] args) {
+    String cmd = args.length > 0 ? args[0] : "status";
+    String uri = System.getenv().getOrDefault("NEO4J_URI", "bolt://localhost:7687");
+    String user = System.getenv().getOrDefault("NEO4J_USER", "neo4j");
+    String pass = System.getenv().getOrDefault("NEO4J_PASS", "12345678");
+    String db = System.getenv().getOrDefault("NEO4J_DB", "rag");
+
+    try (Driver driver = GraphDatabase.driver(uri, AuthTokens.basic(user, pass));
+         Session s = driver.session(SessionConfig.forDatabase(db))) {
+      switch (cmd) {
+        case "activate" -> activate(s, new Version(args.length > 1 ? args[1] : ""));
+        case "drop" -> drop(s, new Version(args.length > 1 ? args[1] : ""));
+        case "status" -> {
+          Active a = resolve(s);
+          System.out.println("Active version: '" + a.version().tag() + "' -> " + a.qaIndex()
+              + (a.chunkIndex() == null ? "" : " + " + a.chunkIndex()));
+          var rs = s.run("SHOW VECTOR INDEXES YIELD name, state, populationPercent, labelsOrTypes, properties "
+              + "RETURN name, state, populationPercent, labelsOrTypes, properties ORDER BY name");
+          while (rs.hasNext()) {
+            var r = rs.next();
+            System.out.printf("  %-36s %-10s %5.1f%% %s%s%n", r.get("name").asString(), r.get("state").asString(),
+                r.get("populationPercent").asDouble(0), r.get("labelsOrTypes").asList(), r.get("properties").asList());
+          }
+        }
+        default -> throw new IllegalArgumentException("Usage: status | activate <version> | drop <version>");
+      }
+    }
+  }
+}
@@ -0,0 +1,100 @@
+package ai.nlp;
+
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Date;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * Kiểu ô và dòng trắng mà {@link XlsxRowReader} phát ra, trên một file .xlsx tạo bằng POI.
+ */
+class XlsxRowReaderTest {
+
+  @TempDir
+  Path dir;
+
+  @Test
+  void reportsCellKindsFromSheetXml() throws IOException {
+    Path file = write();
+    try (XlsxRowReader in = XlsxRowReader.open(file)) {
+      XlsxRowReader.Row header = in.header();
+      assertNotNull(header);
+      assertEquals(XlsxRowReader.Kind.STRING, header.kind(0));
+
+      XlsxRowReader.Row row = in.next();
+      assertEquals(1, row.num());
+      assertEquals("0987654321012345678", row.get(0));
+      assertEquals(XlsxRowReader.Kind.STRING, row.kind(0)); // chuỗi toàn chữ số vẫn là chuỗi
+      assertEquals(XlsxRowReader.Kind.NUMERIC, row.kind(1));
+      assertEquals("42", row.get(1));
+      assertEquals(XlsxRowReader.Kind.BOOLEAN, row.kind(2));
+      assertEquals("TRUE", row.get(2));
+      assertEquals(XlsxRowReader.Kind.FORMULA, row.kind(3));
+      assertEquals(XlsxRowReader.Kind.DATE, row.kind(4));
+      assertEquals(XlsxRowReader.Kind.BLANK, row.kind(9));
+
+      // dòng 2 trắng bị bỏ qua mặc định
+      assertEquals(3, in.next().num());
+      assertNull(in.next());
+    }
+  }
+
+  @Test
+  void emitsEmptyRowsWhenAsked() throws IOException {
+    Path file = write();
+    try (XlsxRowReader in = XlsxRowReader.open(file, true)) {
+      in.header();
+      assertEquals(1, in.next().num());
+      XlsxRowReader.Row blank = in.next();
+      assertEquals(2, blank.num());
+      assertEquals(0, blank.size());
+      assertEquals(3, in.next().num());
+      assertNull(in.next());
+    }
+  }
+
+  /**
+   * Header, một dòng đủ kiểu ô, một dòng trắng (có trong XML vì có style), một dòng thường.
+   */
+  private Path write() throws IOException {
+    Path file = dir.resolve("in.xlsx");
+    try (XSSFWorkbook wb = new XSSFWorkbook(); OutputStream os = Files.newOutputStream(file)) {
+      Sheet sh = wb.createSheet("qa");
+      Row h = sh.createRow(0);
+      h.createCell(0).setCellValue("question");
+      h.createCell(1).setCellValue("answer");
+
+      CellStyle date = wb.createCellStyle();
+      date.setDataFormat(wb.getCreationHelper().createDataFormat().getFormat("yyyy-mm-dd"));
+      Row r = sh.createRow(1);
+      r.createCell(0).setCellValue("0987654321012345678");
+      r.createCell(1).setCellValue(42);
+      r.createCell(2).setCellValue(true);
+      r.createCell(3).setCellFormula("B2*2");
+      r.createCell(4).setCellValue(new Date(0));
+      r.getCell(4).setCellStyle(date);
+      wb.getCreationHelper().createFormulaEvaluator().evaluateAll();
+
+      Row blank = sh.createRow(2);
+      blank.setRowStyle(date);
+
+      Row last = sh.createRow(3);
+      last.createCell(0).setCellValue("q");
+      last.createCell(1).setCellValue("a");
+      wb.write(os);
+    }
+    return file;
+  }
+}
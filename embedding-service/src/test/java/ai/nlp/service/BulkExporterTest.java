@@ -0,0 +1,99 @@
+package ai.nlp.service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * File CSV và script mà {@link BulkExporter} sinh ra cho {@code neo4j-admin database import}; không cần Neo4j.
+ */
+class BulkExporterTest {
+
+  @TempDir
+  Path dir;
+
+  @Test
+  void writesCsvWithTypedHeadersArraysAndEscaping() throws IOException {
+    try (BulkExporter out = new BulkExporter(dir, "cosine", VectorIndexManager.Version.DEFAULT)) {
+      out.write(List.of(row("qa1", "Hỏi \"gì\"?", "dòng 1\ndòng 2", new float[]{0.25f, -1.5f, 3f})));
+    }
+
+    assertEquals("""
+        id:ID(QA),question,answer,contentHash,embedding:float[],:LABEL
+        "qa1","Hỏi ""gì""?","dòng 1
+        dòng 2","h-qa1",0.25;-1.5;3.0,QA
+        """, read("qa_nodes.csv"));
+    assertEquals("""
+        id:ID(QAChunk),qaId,seq:int,text,indexVersion,embedding:float[],:LABEL
+        "qa1#0","qa1",0,"chunk ""0""\","",0.25;-1.5;3.0,QAChunk
+        """, read("qa_chunk_nodes.csv"));
+    assertEquals("""
+        :START_ID(QA),:END_ID(QAChunk),:TYPE
+        "qa1","qa1#0",HAS_CHUNK
+        """, read("has_chunk_rels.csv"));
+  }
+
+  @Test
+  void postImportCreatesIndexesWithDimensionAndAwaitsThem() throws IOException {
+    try (BulkExporter out = new BulkExporter(dir, "cosine", VectorIndexManager.Version.DEFAULT)) {
+      out.write(List.of(row("qa1", "q", "a", new float[]{0.25f, -1.5f, 3f})));
+    }
+
+    String cypher = read("post-import.cypher");
+    assertTrue(cypher.contains("CREATE VECTOR INDEX qa_embedding_index IF NOT EXISTS\nFOR (n:QA) ON (n.embedding)"),
+        cypher);
+    assertTrue(cypher.contains("CREATE VECTOR INDEX qa_chunk_embedding_index IF NOT EXISTS"), cypher);
+    assertTrue(cypher.contains("`vector.dimensions`: 3, `vector.similarity_function`: 'cosine'"), cypher);
+    assertTrue(cypher.indexOf("CALL db.awaitIndexes(") > cypher.lastIndexOf("CREATE VECTOR INDEX"), cypher);
+    assertFalse(cypher.contains("VectorIndexConfig"), cypher); // version mặc định không cần activate
+    assertTrue(read("import.sh").contains("--array-delimiter=';'"));
+    assertTrue(Files.exists(dir.resolve("post-import.sh")));
+  }
+
+  @Test
+  void taggedVersionUsesItsPropertiesAndActivates() throws IOException {
+    VectorIndexManager.Version v2 = new VectorIndexManager.Version("v2");
+    try (BulkExporter out = new BulkExporter(dir, "cosine", v2)) {
+      out.write(List.of(row("qa1", "q", "a", new float[]{1f, 0f})));
+    }
+
+    assertTrue(read("qa_nodes.csv").startsWith(
+        "id:ID(QA),question,answer,contentHash_v2,embedding_v2:float[],:LABEL\n"));
+    assertTrue(read("qa_chunk_nodes.csv").contains("\"qa1#v2#0\",\"qa1\",0,"));
+    String cypher = read("post-import.cypher");
+    assertTrue(cypher.contains("CREATE VECTOR INDEX qa_embedding_index_v2 IF NOT EXISTS"), cypher);
+    assertTrue(cypher.contains("`vector.dimensions`: 2"), cypher);
+    assertTrue(cypher.contains("SET c.version = 'v2'"), cypher);
+  }
+
+  @Test
+  void emptyExportWritesNoScripts() throws IOException {
+    new BulkExporter(dir, "cosine", VectorIndexManager.Version.DEFAULT).close();
+
+    assertTrue(Files.exists(dir.resolve("qa_nodes.csv")));
+    assertFalse(Files.exists(dir.resolve("post-import.cypher")));
+    assertFalse(Files.exists(dir.resolve("import.sh")));
+  }
+
+  /**
+   * Một dòng như sau {@link IngestQA#attach}, với một chunk.
+   */
+  private static Map<String, Object> row(String id, String q, String a, float[] emb) {
+    Map<String, Object> chunk = Map.of("seq", 0, "text", "chunk \"0\"", "emb", emb);
+    return Map.of("id", id, "q", q, "a", a, "hash", "h-" + id, "emb", emb, "chunks", List.of(chunk));
+  }
+
+  private String read(String name) throws IOException {
+    return Files.readString(dir.resolve(name), StandardCharsets.UTF_8);
+  }
+}
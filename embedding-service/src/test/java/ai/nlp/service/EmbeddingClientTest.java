@@ -0,0 +1,121 @@
+package ai.nlp.service;
+
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntFunction;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Hedge và failover của {@link EmbeddingClient} trên hai replica TEI giả lập. Replica chính được chọn ngẫu nhiên
+ * khi hoà, nên phản hồi được quyết định theo thứ tự request trên cả hai server chứ không theo server.
+ */
+class EmbeddingClientTest {
+  private static final String BODY = "{\"embeddings\": [[0.6, 0.8]]}";
+
+  private final AtomicInteger seen = new AtomicInteger();
+  private MockWebServer a, b;
+
+  @BeforeEach
+  void start() throws IOException {
+    a = new MockWebServer();
+    b = new MockWebServer();
+    a.start();
+    b.start();
+  }
+
+  @AfterEach
+  void stop() throws IOException {
+    a.shutdown();
+    b.shutdown();
+  }
+
+  @Test
+  void slowPrimaryIsHedgedToOtherReplica() throws IOException {
+    respond(n -> n == 0
+        ? new MockResponse().setBody(BODY).setHeadersDelay(2, TimeUnit.SECONDS)
+        : new MockResponse().setBody(BODY));
+
+    try (EmbeddingClient client = client(true)) {
+      long t0 = System.nanoTime();
+      float[][] v = client.embedBatchE5(List.of("xin chào"), false);
+      long ms = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - t0);
+
+      assertArrayEquals(new float[]{0.6f, 0.8f}, v[0]);
+      assertTrue(ms < 1000, "hedged response should win, took " + ms + " ms");
+      assertEquals(1, a.getRequestCount());
+      assertEquals(1, b.getRequestCount());
+    }
+  }
+
+  @Test
+  void serverErrorFailsOverToOtherReplica() throws IOException {
+    respond(n -> n == 0 ? new MockResponse().setResponseCode(503) : new MockResponse().setBody(BODY));
+
+    try (EmbeddingClient client = client(false)) {
+      float[][] v = client.embedBatchE5(List.of("xin chào"), false);
+
+      assertArrayEquals(new float[]{0.6f, 0.8f}, v[0]);
+      assertEquals(1, a.getRequestCount());
+      assertEquals(1, b.getRequestCount());
+    }
+  }
+
+  @Test
+  void clientErrorIsNotRetried() throws IOException {
+    respond(n -> new MockResponse().setResponseCode(400).setBody("{\"error\": \"bad input\"}"));
+
+    try (EmbeddingClient client = client(false)) {
+      IOException e = assertThrows(IOException.class, () -> client.embedBatchE5(List.of("xin chào"), false));
+
+      assertTrue(e.getMessage().contains("400"), e.getMessage());
+      assertEquals(1, a.getRequestCount() + b.getRequestCount());
+    }
+  }
+
+  @Test
+  void failsWhenBothReplicasFail() throws IOException {
+    respond(n -> new MockResponse().setResponseCode(503));
+
+    try (EmbeddingClient client = client(false)) {
+      assertThrows(IOException.class, () -> client.embedBatchE5(List.of("xin chào"), false));
+
+      // một lần failover, không lặp lại
+      assertEquals(1, a.getRequestCount());
+      assertEquals(1, b.getRequestCount());
+    }
+  }
+
+  /**
+   * Phản hồi theo thứ tự request tới (0 = request đầu tiên trên cả hai server).
+   */
+  private void respond(IntFunction<MockResponse> byOrder) {
+    Dispatcher d = new Dispatcher() {
+      @Override
+      public MockResponse dispatch(RecordedRequest request) {
+        return byOrder.apply(seen.getAndIncrement());
+      }
+    };
+    a.setDispatcher(d);
+    b.setDispatcher(d);
+  }
+
+  private EmbeddingClient client(boolean hedge) {
+    EmbeddingClient.Options opts = new EmbeddingClient.Options(32, 16384, false, 8, hedge, 50, "test", null, 0,
+        null, 0);
+    return new EmbeddingClient(List.of(a.url("/embeddings").toString(), b.url("/embeddings").toString()), opts);
+  }
+}
@@ -0,0 +1,97 @@
+package ai.nlp.service;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfEnvironmentVariable;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tokenize, mean pooling và chuẩn hoá của {@link OnnxEmbedder} trên một model đã export (có thể là model nhỏ
+ * tạo cục bộ, vd. {@code optimum-cli export onnx --model intfloat/multilingual-e5-small ...}). Bỏ qua khi thiếu
+ * {@code ONNX_MODEL_DIR}; so với TEI khi có thêm {@code TEI_URL}.
+ */
+@EnabledIfEnvironmentVariable(named = "ONNX_MODEL_DIR", matches = ".+")
+class OnnxEmbedderTest {
+  private static final String SHORT = "Làm thế nào để đổi mật khẩu?";
+  private static final String LONG = "Hướng dẫn chi tiết các bước đăng ký dịch vụ và kiểm tra cước phí. ".repeat(10);
+
+  private static OnnxEmbedder onnx;
+
+  @BeforeAll
+  static void open() throws IOException {
+    onnx = OnnxEmbedder.open(Path.of(System.getenv("ONNX_MODEL_DIR")),
+        new OnnxEmbedder.Options(16, 512, 2, 0, null));
+  }
+
+  @AfterAll
+  static void close() throws IOException {
+    if (onnx != null) onnx.close();
+  }
+
+  @Test
+  void vectorsAreUnitLength() throws IOException {
+    for (float[] v : onnx.embedBatchE5(List.of(SHORT, LONG, "ok"), false)) {
+      assertEquals(1.0, Math.sqrt(dot(v, v)), 1e-4);
+    }
+  }
+
+  @Test
+  void paddingDoesNotChangeMeanPooling() throws IOException {
+    // batch với câu dài -> câu ngắn bị pad; mask phải loại phần pad khỏi trung bình
+    float[] alone = onnx.embedBatchE5(List.of(SHORT), false)[0];
+    float[][] batched = onnx.embedBatchE5(List.of(LONG, SHORT), false);
+    assertTrue(dot(alone, batched[1]) > 0.9999, "cos=" + dot(alone, batched[1]));
+  }
+
+  @Test
+  void outputKeepsInputOrder() throws IOException {
+    // batch được sắp theo số token trước khi chạy; kết quả phải trả về đúng thứ tự đầu vào
+    float[][] v = onnx.embedBatchE5(List.of(LONG, SHORT, "ok"), true);
+    assertArrayEquals(onnx.embedBatchE5(List.of("ok"), true)[0], v[2], 1e-5f);
+    assertArrayEquals(onnx.embedBatchE5(List.of(LONG), true)[0], v[0], 1e-5f);
+  }
+
+  @Test
+  void prefixDependsOnQueryOrPassage() throws IOException {
+    float[] q = onnx.embedE5(SHORT, true);
+    float[] p = onnx.embedE5(SHORT, false);
+    assertTrue(dot(q, p) < 0.99999, "query: và passage: phải cho vector khác nhau");
+  }
+
+  @Test
+  void truncatesAtMaxLength() throws IOException {
+    // quá 512 token thì phần đuôi bị cắt như TEI: thêm chữ sau điểm cắt không đổi vector
+    String huge = LONG.repeat(20);
+    float[][] v = onnx.embedBatchE5(List.of(huge, huge + " phần đuôi bị cắt"), false);
+    assertArrayEquals(v[0], v[1], 1e-5f);
+  }
+
+  @Test
+  @EnabledIfEnvironmentVariable(named = "TEI_URL", matches = ".+")
+  void matchesTei() throws IOException {
+    List<String> texts = List.of(SHORT, "How do I reset my password?", "ok", LONG);
+    try (EmbeddingClient tei = new EmbeddingClient(System.getenv("TEI_URL"))) {
+      for (boolean isQuery : new boolean[]{true, false}) {
+        float[][] a = onnx.embedBatchE5(texts, isQuery);
+        float[][] b = tei.embedBatchE5(texts, isQuery);
+        for (int i = 0; i < a.length; i++) {
+          assertTrue(dot(a[i], b[i]) > 0.99, texts.get(i) + " cos=" + dot(a[i], b[i]));
+        }
+      }
+    }
+  }
+
+  private static double dot(float[] a, float[] b) {
+    double s = 0;
+    for (int i = 0; i < a.length; i++) s += (double) a[i] * b[i];
+    return s;
+  }
+}
@@ -0,0 +1,42 @@
+package ai.nlp.service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfEnvironmentVariable;
+import org.neo4j.driver.AuthTokens;
+import org.neo4j.driver.Driver;
+import org.neo4j.driver.GraphDatabase;
+import org.neo4j.driver.Session;
+import org.neo4j.driver.SessionConfig;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Sau khi migrate, các câu MERGE của ingest phải được plan bằng {@code NodeUniqueIndexSeek}.
+ * Cần một Neo4j dùng riêng cho test (migrate ghi schema vào database đó), ví dụ:
+ * <pre>
+ *   docker run -d --rm -p 7687:7687 -e NEO4J_AUTH=neo4j/12345678 neo4j:5
+ *   NEO4J_TEST_URI=bolt://localhost:7687 mvn test
+ * </pre>
+ * {@code NEO4J_TEST_USER} / {@code NEO4J_TEST_PASS} / {@code NEO4J_TEST_DB} mặc định neo4j / 12345678 / neo4j.
+ */
+@EnabledIfEnvironmentVariable(named = "NEO4J_TEST_URI", matches = ".+")
+class SchemaMigrationsTest {
+
+  @Test
+  void ingestMergesUseUniqueIndexSeek() {
+    var env = System.getenv();
+    try (Driver driver = GraphDatabase.driver(env.get("NEO4J_TEST_URI"),
+        AuthTokens.basic(env.getOrDefault("NEO4J_TEST_USER", "neo4j"), env.getOrDefault("NEO4J_TEST_PASS", "12345678")));
+         Session s = driver.session(SessionConfig.forDatabase(env.getOrDefault("NEO4J_TEST_DB", "neo4j")))) {
+      SchemaMigrations.migrate(s);
+
+      assertEquals(List.of(), SchemaMigrations.verifyPlans(s));
+      // chạy lại không áp dụng gì thêm và không hỏng
+      SchemaMigrations.migrate(s);
+      assertTrue(SchemaMigrations.verifyPlans(s).isEmpty());
+    }
+  }
+}